@@ -0,0 +1,94 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.benchmarks;
+
+import com.drtshock.playervaults.vaultmanagement.OpenVaultRegistry;
+import com.drtshock.playervaults.vaultmanagement.VaultHolder;
+import com.drtshock.playervaults.vaultmanagement.VaultKey;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.bukkit.inventory.InventoryHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-click cost of deciding whether the clicked view is a vault: rendering the vault title through MiniMessage and
+ * comparing it to the view's title, versus a cached title, versus checking the inventory holder. Clicks outside
+ * vaults pay the same, so this is paid on every click on the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClickDetectionBenchmark {
+    // The default vault title from lang.conf.
+    private static final String TITLE = "<dark_red>Vault #<vault>";
+    private static final int NUMBER = 3;
+
+    private final MiniMessage miniMessage = MiniMessage.miniMessage();
+    private final Map<Integer, String> titles = new ConcurrentHashMap<>();
+    private final OpenVaultRegistry registry = new OpenVaultRegistry();
+    private final UUID player = UUID.randomUUID();
+
+    private String viewTitle;
+    private InventoryHolder holder;
+
+    @Setup
+    public void setup() {
+        this.viewTitle = this.render(NUMBER);
+        this.holder = new VaultHolder(NUMBER);
+        this.registry.enter(this.player, VaultKey.of(this.player, NUMBER), null);
+    }
+
+    private String render(int number) {
+        return LegacyComponentSerializer.legacySection().serialize(this.miniMessage.deserialize(TITLE, Placeholder.unparsed("vault", String.valueOf(number))));
+    }
+
+    @Benchmark
+    public boolean renderedTitle() {
+        VaultKey info = this.registry.getViewing(this.player);
+        return info != null && this.viewTitle.equalsIgnoreCase(this.render(info.getNumber()));
+    }
+
+    @Benchmark
+    public boolean cachedTitle() {
+        VaultKey info = this.registry.getViewing(this.player);
+        return info != null && this.viewTitle.equalsIgnoreCase(this.titles.computeIfAbsent(info.getNumber(), this::render));
+    }
+
+    @Benchmark
+    public boolean holder() {
+        return this.holder instanceof VaultHolder && this.registry.getViewing(this.player) != null;
+    }
+}
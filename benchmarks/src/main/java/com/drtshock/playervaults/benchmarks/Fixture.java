@@ -0,0 +1,102 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.benchmarks;
+
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import com.drtshock.playervaults.vaultmanagement.ItemCache;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Vault contents to benchmark with. Real items need a running server to serialize, so {@link #install()} swaps in
+ * an item cache that writes each item as its type and amount, padded to the size CardboardBox produces for that
+ * kind of item. Everything around the item bytes is the plugin's own code.
+ */
+public enum Fixture {
+    EMPTY(0, 0),
+    HALF_FULL(27, 48),
+    FULL_ENCHANTED(54, 320),
+    SHULKER_NESTED(54, 9 * 1024);
+
+    private static final Material[] MATERIALS = {Material.DIAMOND, Material.STONE, Material.OAK_LOG, Material.GOLD_INGOT, Material.BREAD};
+
+    private final int items;
+    private final int itemSize;
+
+    Fixture(int items, int itemSize) {
+        this.items = items;
+        this.itemSize = itemSize;
+    }
+
+    /**
+     * Serializes items as {@code TYPE:amount;} followed by filler up to a fixed size.
+     */
+    private static final class PaddedItemCache extends ItemCache {
+        private final int size;
+        private final byte[] filler;
+
+        private PaddedItemCache(int size) {
+            super(0);
+            this.size = size;
+            this.filler = new byte[size];
+            new Random(size).nextBytes(this.filler);
+        }
+
+        @Override
+        public byte[] serialize(ItemStack item) {
+            byte[] header = (item.getType().name() + ':' + item.getAmount() + ';').getBytes(StandardCharsets.UTF_8);
+            byte[] data = Arrays.copyOf(header, Math.max(header.length, this.size));
+            System.arraycopy(this.filler, 0, data, header.length, data.length - header.length);
+            return data;
+        }
+
+        @Override
+        public ItemStack deserialize(byte[] data) {
+            int end = 0;
+            while (data[end] != ';') {
+                end++;
+            }
+            String[] parts = new String(data, 0, end, StandardCharsets.UTF_8).split(":");
+            return new ItemStack(Material.valueOf(parts[0]), Integer.parseInt(parts[1]));
+        }
+    }
+
+    /**
+     * Makes items serialize to this fixture's size. Call before using {@link #contents()}.
+     */
+    public void install() {
+        CardboardBoxSerialization.setItemCache(new PaddedItemCache(this.itemSize));
+    }
+
+    /**
+     * Builds a full size vault with the fixture's number of items, filled from the first slot.
+     *
+     * @return contents
+     */
+    public ItemStack[] contents() {
+        ItemStack[] contents = new ItemStack[54];
+        for (int slot = 0; slot < this.items; slot++) {
+            contents[slot] = new ItemStack(MATERIALS[slot % MATERIALS.length], slot % 64 + 1);
+        }
+        return contents;
+    }
+}
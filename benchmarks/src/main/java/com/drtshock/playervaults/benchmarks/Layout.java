@@ -0,0 +1,75 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.benchmarks;
+
+import com.drtshock.playervaults.storage.FlatFileStorage;
+import com.drtshock.playervaults.storage.PerVaultFileStorage;
+import com.drtshock.playervaults.storage.VaultStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Storage types to benchmark, set up the way VaultManager creates them with the default config.
+ */
+public enum Layout {
+    FLATFILE {
+        @Override
+        public VaultStorage open(File directory) {
+            return new FlatFileStorage(directory, 1000, 128L * 1024 * 1024, false);
+        }
+    },
+    FLATFILE_LAZY {
+        @Override
+        public VaultStorage open(File directory) {
+            return new FlatFileStorage(directory, 1000, 128L * 1024 * 1024, true);
+        }
+    },
+    PER_VAULT {
+        @Override
+        public VaultStorage open(File directory) {
+            return new PerVaultFileStorage(directory);
+        }
+    };
+
+    /**
+     * Opens storage in a folder.
+     *
+     * @param directory vault folder
+     * @return storage
+     */
+    public abstract VaultStorage open(File directory);
+
+    /**
+     * Deletes a folder and everything in it.
+     *
+     * @param directory folder to delete
+     * @throws IOException if deleting fails
+     */
+    public static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
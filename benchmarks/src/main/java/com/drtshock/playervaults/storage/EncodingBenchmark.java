@@ -0,0 +1,99 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.benchmarks.Fixture;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What it costs to get a vault in and out of its stored form: the CardboardBox payload and its Base64 string used by
+ * flatfile, versus the {@link VaultFileFormat} container used by per-vault files, SQLite and the journal. Lives in
+ * the storage package to reach {@link VaultFileFormat#toBytes(ItemStack[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+    private static final String HOLDER = "bench";
+
+    @Param
+    private Fixture fixture;
+
+    private ItemStack[] contents;
+    private byte[] payload;
+    private String stored;
+    private byte[] container;
+
+    @Setup
+    public void setup() throws IOException {
+        this.fixture.install();
+        this.contents = this.fixture.contents();
+        this.payload = CardboardBoxSerialization.writeInventory(this.contents);
+        this.stored = CardboardBoxSerialization.toStorage(this.contents, HOLDER);
+        this.container = VaultFileFormat.toBytes(this.contents);
+    }
+
+    @Benchmark
+    public byte[] writeInventory() throws IOException {
+        return CardboardBoxSerialization.writeInventory(this.contents);
+    }
+
+    @Benchmark
+    public ItemStack[] readInventory() {
+        return CardboardBoxSerialization.readInventory(this.payload, HOLDER);
+    }
+
+    @Benchmark
+    public String toStorage() {
+        return CardboardBoxSerialization.toStorage(this.contents, HOLDER);
+    }
+
+    @Benchmark
+    public ItemStack[] fromStorage() {
+        return CardboardBoxSerialization.fromStorage(this.stored, HOLDER);
+    }
+
+    @Benchmark
+    public byte[] containerEncode() {
+        return VaultFileFormat.toBytes(this.contents);
+    }
+
+    @Benchmark
+    public ItemStack[] containerDecode() {
+        return VaultFileFormat.decode(ByteBuffer.wrap(this.container), HOLDER);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.benchmarks.Fixture;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a player's flatfile vault file on join: parsing the whole YAML document, versus only indexing it and
+ * reading a single vault the way lazy loading does. See {@link StorageBenchmark} for the same through the storage. Lives in the storage package to reach {@link VaultFileIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatFileBenchmark {
+    @Param
+    private Fixture fixture;
+
+    @Param({"1", "10"})
+    private int vaults;
+
+    private Path file;
+    private String contents;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.fixture.install();
+        YamlConfiguration yaml = new YamlConfiguration();
+        String data = CardboardBoxSerialization.toStorage(this.fixture.contents(), "bench");
+        for (int i = 1; i <= this.vaults; i++) {
+            yaml.set("vault" + i, data);
+        }
+        this.contents = yaml.saveToString();
+        this.file = Files.createTempFile("pvx-bench", ".yml");
+        Files.writeString(this.file, this.contents, StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Benchmark
+    public String parseWholeFile() throws IOException, InvalidConfigurationException {
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.loadFromString(Files.readString(this.file, StandardCharsets.UTF_8));
+        return yaml.getString("vault1");
+    }
+
+    @Benchmark
+    public Object indexFile() throws IOException {
+        return VaultFileIndex.build(this.file);
+    }
+
+    @Benchmark
+    public byte[] indexAndReadOne() throws IOException {
+        return VaultFileIndex.build(this.file).read(1);
+    }
+
+    @Benchmark
+    public byte[] saveWholeFile() throws IOException, InvalidConfigurationException {
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.loadFromString(this.contents);
+        return yaml.saveToString().getBytes(StandardCharsets.UTF_8);
+    }
+}
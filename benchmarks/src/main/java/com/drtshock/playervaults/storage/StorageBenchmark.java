@@ -0,0 +1,107 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.benchmarks.Fixture;
+import com.drtshock.playervaults.benchmarks.Layout;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading one vault of a holder with several, through each storage type. A cold load is what a join or
+ * the first open after the cache let go of the holder costs, a cached load every open after that. A save is one
+ * vault written and committed, syncs included, the way the I/O thread does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    private static final String HOLDER = "5f2c1a8e-7d3b-4c6e-8a9f-0e1d2c3b4a59";
+
+    @Param
+    private Fixture fixture;
+
+    @Param
+    private Layout layout;
+
+    @Param({"1", "10"})
+    private int vaults;
+
+    private Path directory;
+    private VaultStorage storage;
+    private ItemStack[] contents;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.fixture.install();
+        this.contents = this.fixture.contents();
+        this.directory = Files.createTempDirectory("pvx-bench");
+        this.storage = this.layout.open(this.directory.toFile());
+        Map<Integer, ItemStack[]> vaults = new HashMap<>();
+        for (int i = 1; i <= this.vaults; i++) {
+            vaults.put(i, this.contents);
+        }
+        this.storage.save(HOLDER, vaults);
+        this.storage.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.storage.close();
+        Layout.delete(this.directory);
+    }
+
+    @Benchmark
+    public ItemStack[] loadCold() {
+        this.storage.uncache(HOLDER);
+        return this.storage.load(HOLDER, 1);
+    }
+
+    @Benchmark
+    public ItemStack[] loadCached() {
+        return this.storage.load(HOLDER, 1);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        this.storage.save(HOLDER, Map.of(1, this.contents));
+        this.storage.commit();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.drtshock.playervaults.vaultmanagement;
+
+import com.drtshock.playervaults.benchmarks.Fixture;
+import com.drtshock.playervaults.benchmarks.Layout;
+import com.drtshock.playervaults.storage.VaultStorage;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves going through the write-behind queue into storage, wired up like VaultManager does with the default save
+ * window. {@code submit} is what a vault close costs the main thread once its snapshot is taken. {@code
+ * submitAndFlush} is a batch of holders closing a vault at once, until all of it is written with one commit.
+ * VaultManager#saveVault itself takes a live inventory, which needs a server, so this starts at the queue. Lives in
+ * the vaultmanagement package to reach the queue's constructor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveQueueBenchmark {
+    private static final long WINDOW_MILLIS = 50;
+
+    @Param
+    private Fixture fixture;
+
+    @Param
+    private Layout layout;
+
+    @Param({"1", "50"})
+    private int holders;
+
+    private Path directory;
+    private VaultStorage storage;
+    private VaultSaveQueue queue;
+    private ItemStack[] contents;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.fixture.install();
+        this.contents = this.fixture.contents();
+        this.directory = Files.createTempDirectory("pvx-bench");
+        this.storage = this.layout.open(this.directory.toFile());
+        this.queue = new VaultSaveQueue((holder, vaults) -> {
+            try {
+                this.storage.save(holder, vaults);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, () -> {
+            try {
+                this.storage.commit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, WINDOW_MILLIS);
+        this.names = new String[this.holders];
+        for (int i = 0; i < this.holders; i++) {
+            this.names[i] = UUID.randomUUID().toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.queue.shutdown();
+        this.storage.close();
+        Layout.delete(this.directory);
+    }
+
+    @Benchmark
+    public void submit() {
+        this.queue.submit(this.names[this.next++ % this.names.length], 1, this.contents);
+    }
+
+    @Benchmark
+    public void submitAndFlush() {
+        for (String holder : this.names) {
+            this.queue.submit(holder, 1, this.contents);
+        }
+        this.queue.flush();
+    }
+}
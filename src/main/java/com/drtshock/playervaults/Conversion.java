@@ -29,16 +29,31 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 class Conversion {
@@ -144,14 +159,17 @@ class Conversion {
         }
     }
 
+    private static final String CHECKPOINT = ".conversion-progress";
+
     static void convert(PlayerVaults plugin) {
         Logger logger = plugin.getLogger();
 
         File newDir = plugin.getVaultData();
         File oldVaults = plugin.getDataFolder().toPath().resolve("base64vaults").toFile();
         File reallyOldVaults = plugin.getDataFolder().toPath().resolve("uuidvaults").toFile();
+        Path checkpoint = newDir.toPath().resolve(CHECKPOINT);
 
-        if (newDir.exists()) {
+        if (newDir.exists() && !Files.exists(checkpoint)) {
             plugin.getDataFolder().toPath().resolve("oldVaultsData").toFile().mkdirs();
             if (oldVaults.exists()) {
                 try {
@@ -170,8 +188,6 @@ class Conversion {
             return;
         }
 
-        newDir.mkdirs();
-
         File oldDir;
         boolean recent;
         if (oldVaults.exists() && oldVaults.isDirectory()) {
@@ -187,67 +203,176 @@ class Conversion {
             recent = false;
             oldDir = reallyOldVaults;
         } else {
+            newDir.mkdirs();
             logger.info("No old vaults found to convert to new format. :)");
             return;
         }
+        // Created together with the folder, so an interrupted conversion is never mistaken for a finished one.
+        newDir.mkdirs();
 
-        int players = 0;
-        int vaults = 0;
-        int failed = 0;
+        // Files finished by an earlier, interrupted run.
+        Set<String> done = ConcurrentHashMap.newKeySet();
+        try {
+            if (Files.exists(checkpoint)) {
+                done.addAll(Files.readAllLines(checkpoint, StandardCharsets.UTF_8));
+                logger.info("Resuming conversion, " + done.size() + " files were already converted");
+            } else {
+                Files.createFile(checkpoint);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to read conversion progress, starting over", e);
+        }
+
+        List<File> files = new ArrayList<>();
         for (File file : oldDir.listFiles()) {
             if (file.isDirectory() || !file.getName().endsWith(".yml")) {
                 continue; // backups folder.
             }
+            if (!done.contains(file.getName())) {
+                files.add(file);
+            }
+        }
 
-            FileConfiguration uuidFile = YamlConfiguration.loadConfiguration(file);
-            String stringUUID = file.getName().replace(".yml", "");
-
-            for (String key : uuidFile.getKeys(false)) {
-                if (!key.startsWith("vault")) {
-                    continue;
-                }
-
-                int vaultNumber = Integer.parseInt(key.replace("vault", ""));
-
-                try {
-
-                    ItemStack[] contents;
-                    if (recent) {
-                        String data = uuidFile.getString(key);
-                        ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64.getMimeDecoder().decode(data));
-                        BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream);
-                        contents = new ItemStack[dataInput.readInt()];
-                        // Read the serialized inventory
-                        for (int i = 0; i < contents.length; i++) {
-                            contents[i] = (ItemStack) dataInput.readObject();
+        Progress progress = new Progress();
+        int workers = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "PlayerVaultsX Conversion");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.currentTimeMillis();
+        try (BufferedWriter progressWriter = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+            // One shard per worker, so the queue never holds more than the pool can work on.
+            List<Future<?>> shards = new ArrayList<>();
+            for (int worker = 0; worker < workers; worker++) {
+                int shard = worker;
+                shards.add(executor.submit(() -> {
+                    for (int i = shard; i < files.size(); i += workers) {
+                        File file = files.get(i);
+                        if (!convertFile(logger, file, newDir, recent, progress)) {
+                            // Not checkpointed, so it's converted again on next startup.
+                            continue;
                         }
-                        dataInput.close();
-                    } else {
-                        ConfigurationSection section = uuidFile.getConfigurationSection(key);
-                        List<String> data = new ArrayList<>();
-                        for (String s : section.getKeys(false)) {
-                            String value = section.getString(s);
-                            data.add(value);
+                        synchronized (progressWriter) {
+                            try {
+                                progressWriter.write(file.getName());
+                                progressWriter.newLine();
+                                progressWriter.flush();
+                            } catch (IOException e) {
+                                logger.warning("Failed to record conversion progress: " + e.getMessage());
+                            }
                         }
-                        contents = OldestSerialization.getItems(data);
                     }
-                    String newData = Base64.getMimeEncoder().encodeToString(CardboardBoxSerialization.writeInventory(contents));
-                    uuidFile.set(key, newData);
-                    vaults++;
-                } catch (Exception e) {
-                    logger.severe("Failed to parse vault " + vaultNumber + " for " + stringUUID);
-                    failed++;
+                }));
+            }
+            for (Future<?> shard : shards) {
+                while (true) {
+                    try {
+                        shard.get(5, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        logger.info(progress.report(files.size(), start));
+                    }
                 }
             }
-            try {
-                uuidFile.save(newDir.toPath().resolve(file.getName()).toFile());
-            } catch (IOException e) {
-                logger.severe("Failed to save new file " + file.getName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.severe("Interrupted converting vaults, the conversion continues on next startup");
+            return;
+        } catch (IOException | ExecutionException e) {
+            logger.log(Level.SEVERE, "Failed converting vaults, the conversion continues on next startup", e);
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        logger.info(progress.report(files.size(), start));
+        logger.info(String.format("Converted %d vaults for %d players to new storage. %d failed to convert", progress.vaults.sum(), progress.players.sum(), progress.failed.sum()));
+        if (progress.unwritten.sum() > 0) {
+            // Keep the checkpoint, so only the files that weren't written are converted again.
+            logger.severe(progress.unwritten.sum() + " files could not be written, the conversion continues for them on next startup");
+            return;
+        }
+        try {
+            Files.deleteIfExists(checkpoint);
+        } catch (IOException e) {
+            logger.warning("Failed to delete conversion progress file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counters shared by the conversion workers.
+     */
+    private static class Progress {
+        private final LongAdder players = new LongAdder();
+        private final LongAdder vaults = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder unwritten = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private String report(int total, long start) {
+            double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000D;
+            long players = this.players.sum();
+            return String.format("Converted %d/%d files, %.1f files/s, %.2f MB/s", players, total, players / seconds, this.bytes.sum() / seconds / (1024 * 1024));
+        }
+    }
+
+    // True if the converted file was written.
+    private static boolean convertFile(Logger logger, File file, File newDir, boolean recent, Progress progress) {
+        FileConfiguration uuidFile = YamlConfiguration.loadConfiguration(file);
+        String stringUUID = file.getName().replace(".yml", "");
+
+        for (String key : uuidFile.getKeys(false)) {
+            if (!key.startsWith("vault")) {
+                continue;
             }
 
-            players++;
+            try {
+                // Only checks the key, a malformed one fails this vault instead of the whole file.
+                Integer.parseInt(key.substring("vault".length()));
+
+                ItemStack[] contents;
+                if (recent) {
+                    String data = uuidFile.getString(key);
+                    ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64.getMimeDecoder().decode(data));
+                    BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream);
+                    contents = new ItemStack[dataInput.readInt()];
+                    // Read the serialized inventory
+                    for (int i = 0; i < contents.length; i++) {
+                        contents[i] = (ItemStack) dataInput.readObject();
+                    }
+                    dataInput.close();
+                } else {
+                    ConfigurationSection section = uuidFile.getConfigurationSection(key);
+                    List<String> data = new ArrayList<>();
+                    for (String s : section.getKeys(false)) {
+                        String value = section.getString(s);
+                        data.add(value);
+                    }
+                    contents = OldestSerialization.getItems(data);
+                }
+                String newData = Base64.getMimeEncoder().encodeToString(CardboardBoxSerialization.writeInventory(contents));
+                uuidFile.set(key, newData);
+                progress.vaults.increment();
+            } catch (Exception e) {
+                logger.severe("Failed to parse " + key + " for " + stringUUID);
+                progress.failed.increment();
+            }
+        }
+        try {
+            // Through a temp file, so a crash never leaves a half written file behind to be skipped on resume.
+            Path target = newDir.toPath().resolve(file.getName());
+            Path temp = target.resolveSibling(file.getName() + ".tmp");
+            uuidFile.save(temp.toFile());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to save new file " + file.getName(), e);
+            progress.unwritten.increment();
+            return false;
         }
 
-        logger.info(String.format("Converted %d vaults for %d players to new storage. %d failed to convert", vaults, players, failed));
+        progress.bytes.add(file.length());
+        progress.players.increment();
+        return true;
     }
 }
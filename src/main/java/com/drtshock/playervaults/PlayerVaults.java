@@ -34,8 +34,13 @@ import com.drtshock.playervaults.listeners.VaultPreloadListener;
 import com.drtshock.playervaults.placeholder.Papi;
 import com.drtshock.playervaults.tasks.Cleanup;
 import com.drtshock.playervaults.util.ComponentDispatcher;
+import com.drtshock.playervaults.util.ItemRules;
 import com.drtshock.playervaults.util.Permission;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
 import com.drtshock.playervaults.vaultmanagement.EconomyOperations;
+import com.drtshock.playervaults.vaultmanagement.Entitlements;
+import com.drtshock.playervaults.vaultmanagement.OpenVaultRegistry;
+import com.drtshock.playervaults.vaultmanagement.VaultKey;
 import com.drtshock.playervaults.vaultmanagement.VaultManager;
 import com.drtshock.playervaults.vaultmanagement.VaultViewInfo;
 import com.google.gson.Gson;
@@ -47,7 +52,6 @@ import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
-import org.bukkit.Registry;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.InvalidConfigurationException;
@@ -56,7 +60,6 @@ import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
@@ -87,6 +90,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -97,14 +101,10 @@ public class PlayerVaults extends JavaPlugin {
     public static boolean DEBUG;
     private static PlayerVaults instance;
     private final HashMap<String, SignSetInfo> setSign = new HashMap<>();
-    // Player name - VaultViewInfo
-    private final HashMap<String, VaultViewInfo> inVault = new HashMap<>();
-    // VaultViewInfo - Inventory
-    private final HashMap<String, Inventory> openInventories = new HashMap<>();
-    private final Set<Material> blockedMats = new HashSet<>();
-    private final Set<Enchantment> blockedEnchs = new HashSet<>();
-    private boolean blockWithModelData = false;
-    private boolean blockWithoutModelData = false;
+    private final OpenVaultRegistry openVaults = new OpenVaultRegistry();
+    private volatile ItemRules itemRules = ItemRules.NONE;
+    // Vault number - rendered title, cleared on reload.
+    private final Map<Integer, String> vaultTitles = new ConcurrentHashMap<>();
     private boolean useVault;
     private YamlConfiguration signs;
     private File signsFile;
@@ -115,6 +115,7 @@ public class PlayerVaults extends JavaPlugin {
     private File vaultData;
     private String _versionString;
     private int maxVaultAmountPermTest;
+    private volatile Entitlements entitlements;
     private Metrics metrics;
     private final Config config = new Config();
     private final Translation translation = new Translation(this);
@@ -169,6 +170,7 @@ public class PlayerVaults extends JavaPlugin {
         time = System.currentTimeMillis();
         this.backupsEnabled = this.getConf().getStorage().getFlatFile().isBackups();
         this.maxVaultAmountPermTest = this.getConf().getMaxVaultAmountPermTest();
+        this.entitlements = new Entitlements(this.maxVaultAmountPermTest, this.getDefaultVaultSize());
         loadSigns();
         debug("loaded signs", time);
         time = System.currentTimeMillis();
@@ -186,7 +188,19 @@ public class PlayerVaults extends JavaPlugin {
         debug("setup economy", time);
 
         if (getConf().getPurge().isEnabled()) {
-            getServer().getScheduler().runTaskAsynchronously(this, new Cleanup(getConf().getPurge().getDaysSinceLastEdit()));
+            Cleanup cleanup = new Cleanup(getConf().getPurge().getDaysSinceLastEdit(), getConf().getPurge().isDryRun());
+            long interval = getConf().getPurge().getIntervalHours() * 20L * 60L * 60L;
+            if (interval > 0) {
+                getServer().getScheduler().runTaskTimerAsynchronously(this, cleanup, 0, interval);
+            } else {
+                getServer().getScheduler().runTaskAsynchronously(this, cleanup);
+            }
+        }
+
+        if (this.backupsEnabled) {
+            long interval = Math.max(1, getConf().getStorage().getFlatFile().getBackupIntervalMinutes()) * 20L * 60L;
+            VaultManager vaultManager = VaultManager.getInstance();
+            getServer().getScheduler().runTaskTimerAsynchronously(this, vaultManager::backupChanged, interval, interval);
         }
 
         new BukkitRunnable() {
@@ -253,12 +267,18 @@ public class PlayerVaults extends JavaPlugin {
         this.metricsSimplePie("signs", () -> getConf().isSigns() ? "enabled" : "disabled");
         this.metricsSimplePie("cats", () -> HelpMeCommand.likesCats ? "meow" : "purr");
         this.metricsSimplePie("cleanup", () -> getConf().getPurge().isEnabled() ? "enabled" : "disabled");
+        this.metricsLine("item_cache_hit_rate", () -> CardboardBoxSerialization.getItemCache().getHitRate());
+        this.metricsLine("vault_saves_skipped", () -> {
+            long skipped = VaultManager.getInstance().getSavesSkipped();
+            long total = skipped + VaultManager.getInstance().getSavesWritten();
+            return total == 0 ? 0 : (int) (skipped * 100 / total);
+        });
 
         this.metricsDrillPie("block_items", () -> {
             Map<String, Map<String, Integer>> map = new HashMap<>();
             Map<String, Integer> entry = new HashMap<>();
             if (getConf().getItemBlocking().isEnabled()) {
-                for (Material material : blockedMats) {
+                for (Material material : this.itemRules.getMaterials()) {
                     entry.put(material.toString(), 1);
                 }
             }
@@ -361,22 +381,23 @@ public class PlayerVaults extends JavaPlugin {
     @Override
     public void onDisable() {
         for (Player player : Bukkit.getOnlinePlayers()) {
-            if (this.inVault.containsKey(player.getUniqueId().toString())) {
-                Inventory inventory = player.getOpenInventory().getTopInventory();
-                if (inventory.getViewers().size() == 1) {
-                    VaultViewInfo info = this.inVault.get(player.getUniqueId().toString());
-                    VaultManager.getInstance().saveVault(inventory, player.getUniqueId().toString(), info.getNumber());
-                    this.openInventories.remove(info.toString());
+            OpenVaultRegistry.Exit exit = this.openVaults.leave(player.getUniqueId());
+            if (exit != null) {
+                if (exit.last() && exit.inventory() != null) {
+                    VaultManager.getInstance().saveVault(exit.inventory(), exit.vault().getHolder(), exit.vault().getNumber());
                     // try this to make sure that they can't make further edits if the process hangs.
                     player.closeInventory();
                 }
 
-                this.inVault.remove(player.getUniqueId().toString());
                 debug("Closing vault for " + player.getName());
                 player.closeInventory();
             }
         }
 
+        if (VaultManager.getInstance() != null) {
+            VaultManager.getInstance().shutdown();
+        }
+
         if (getConf().getPurge().isEnabled()) {
             saveSignsFile();
         }
@@ -387,6 +408,8 @@ public class PlayerVaults extends JavaPlugin {
         if (cmd.getName().equalsIgnoreCase("pvreload")) {
             reloadConfig();
             loadConfig(); // To update blocked materials.
+            this.maxVaultAmountPermTest = this.getConf().getMaxVaultAmountPermTest();
+            this.entitlements = new Entitlements(this.maxVaultAmountPermTest, this.getDefaultVaultSize());
             reloadSigns();
             sender.sendMessage(ChatColor.GREEN + "Reloaded PlayerVault's configuration and lang files.");
         }
@@ -411,45 +434,7 @@ public class PlayerVaults extends JavaPlugin {
             this.getLogger().log(Level.SEVERE, "Could not load config.", e);
         }
 
-        // Clear just in case this is a reload.
-        blockedMats.clear();
-        blockedEnchs.clear();
-        this.blockWithModelData = false;
-        this.blockWithoutModelData = false;
-        if (getConf().getItemBlocking().isEnabled()) {
-            for (String s : getConf().getItemBlocking().getList()) {
-                if (s.equalsIgnoreCase("BLOCK_ALL_WITH_CUSTOM_MODEL_DATA")) {
-                    this.blockWithModelData = true;
-                }
-                if (s.equalsIgnoreCase("BLOCK_ALL_WITHOUT_CUSTOM_MODEL_DATA")) {
-                    this.blockWithoutModelData = true;
-                }
-                Material mat = Material.matchMaterial(s);
-                if (mat != null) {
-                    blockedMats.add(mat);
-                    getLogger().log(Level.INFO, "Added {0} to list of blocked materials.", mat.name());
-                }
-            }
-            boolean badEnch = false;
-            for (String s : getConf().getItemBlocking().getEnchantmentsBlocked()) {
-                Enchantment ench = Registry.ENCHANTMENT.match(s);
-                if (ench != null) {
-                    blockedEnchs.add(ench);
-                } else {
-                    badEnch = true;
-                    this.getLogger().warning("Invalid enchantment in config: " + s);
-                }
-            }
-            if (badEnch) {
-                this.getLogger().info("Valid enchantent options: " + Registry.ENCHANTMENT.stream().map(e -> e.getKey().toString()).collect(Collectors.joining(", ")));
-            }
-        }
-        try {
-            ItemMeta.class.getMethod("hasCustomModelData");
-        } catch (NoSuchMethodException e) {
-            this.blockWithModelData = false;
-            this.blockWithoutModelData = false;
-        }
+        this.itemRules = ItemRules.compile(getConf().getItemBlocking(), this.getLogger());
 
         File lang = new File(this.getDataFolder(), "lang");
         if (lang.exists()) {
@@ -476,6 +461,7 @@ public class PlayerVaults extends JavaPlugin {
             this.getLogger().log(Level.SEVERE, "Could not load lang.", e);
         }
         this.translation.cleanupMiniMessup();
+        this.vaultTitles.clear();
     }
 
     public Config getConf() {
@@ -546,12 +532,44 @@ public class PlayerVaults extends JavaPlugin {
         return this.setSign;
     }
 
+    public OpenVaultRegistry getOpenVaults() {
+        return this.openVaults;
+    }
+
+    /**
+     * Gets which vault each player is in, keyed by player UUID string.
+     *
+     * @return a snapshot, changes to it aren't seen by the plugin
+     * @deprecated use {@link #getOpenVaults()}
+     */
+    @Deprecated
     public HashMap<String, VaultViewInfo> getInVault() {
-        return this.inVault;
+        HashMap<String, VaultViewInfo> inVault = new HashMap<>();
+        for (UUID player : this.openVaults.getViewers()) {
+            VaultKey vault = this.openVaults.getViewing(player);
+            if (vault != null) {
+                inVault.put(player.toString(), new VaultViewInfo(vault.getHolder(), vault.getNumber()));
+            }
+        }
+        return inVault;
     }
 
+    /**
+     * Gets the inventories of open vaults, keyed by "holder number".
+     *
+     * @return a snapshot, changes to it aren't seen by the plugin
+     * @deprecated use {@link #getOpenVaults()}
+     */
+    @Deprecated
     public HashMap<String, Inventory> getOpenInventories() {
-        return this.openInventories;
+        HashMap<String, Inventory> openInventories = new HashMap<>();
+        for (VaultKey vault : this.openVaults.getOpen()) {
+            Inventory inventory = this.openVaults.getInventory(vault);
+            if (inventory != null) {
+                openInventories.put(vault.toString(), inventory);
+            }
+        }
+        return openInventories;
     }
 
     public boolean isEconomyEnabled() {
@@ -605,22 +623,24 @@ public class PlayerVaults extends JavaPlugin {
         return offlinePlayer != null ? offlinePlayer.getName() : potentialUUID;
     }
 
+    public ItemRules getItemRules() {
+        return this.itemRules;
+    }
+
     public boolean isBlockedMaterial(Material mat) {
-        return blockedMats.contains(mat);
+        return this.itemRules.isBlocked(mat);
     }
 
     public boolean isBlockWithModelData() {
-        return this.blockWithModelData;
+        return this.itemRules.isBlockWithModelData();
     }
 
     public boolean isBlockWithoutModelData() {
-        return this.blockWithoutModelData;
+        return this.itemRules.isBlockWithoutModelData();
     }
 
     public Set<Enchantment> isEnchantmentBlocked(ItemStack item) {
-        Set<Enchantment> enchantments = new HashSet<>(item.getEnchantments().keySet());
-        enchantments.retainAll(this.blockedEnchs);
-        return enchantments;
+        return this.itemRules.getBlockedEnchantments(item);
     }
 
     /**
@@ -653,6 +673,10 @@ public class PlayerVaults extends JavaPlugin {
         return this.maxVaultAmountPermTest;
     }
 
+    public Entitlements getEntitlements() {
+        return this.entitlements;
+    }
+
     public Translation getTL() {
         return this.translation;
     }
@@ -661,6 +685,16 @@ public class PlayerVaults extends JavaPlugin {
         return this.translation.vaultTitle().with("vault", id).getLegacy();
     }
 
+    /**
+     * Gets the title of a vault, rendered once per number until the next reload.
+     *
+     * @param number vault number
+     * @return title
+     */
+    public String getVaultTitle(int number) {
+        return this.vaultTitles.computeIfAbsent(number, n -> this.getVaultTitle(String.valueOf(n)));
+    }
+
     public String getExceptions() {
         if (this.exceptions.isEmpty()) {
             return null;
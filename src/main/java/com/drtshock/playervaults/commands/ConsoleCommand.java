@@ -19,8 +19,9 @@
 package com.drtshock.playervaults.commands;
 
 import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.storage.BackupStore;
+import com.drtshock.playervaults.vaultmanagement.VaultManager;
 import com.drtshock.playervaults.vaultmanagement.VaultOperations;
-import com.drtshock.playervaults.vaultmanagement.VaultViewInfo;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
@@ -28,6 +29,13 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 
 public class ConsoleCommand implements CommandExecutor {
     private final PlayerVaults plugin;
@@ -48,6 +56,8 @@ public class ConsoleCommand implements CommandExecutor {
 
         if (args.length == 0) {
             sender.sendMessage("/" + label + " openforplayer <player> <owner> <vaultid>");
+            sender.sendMessage("/" + label + " backups <owner>");
+            sender.sendMessage("/" + label + " restore <owner> [backup]");
             return true;
         } else {
             if (args[0].equals("openforplayer")) {
@@ -70,26 +80,78 @@ public class ConsoleCommand implements CommandExecutor {
                         sender.sendMessage("FAILED TO LOOK UP UUID FOR NAME");
                         return true;
                     }
-                    if (PlayerVaults.getInstance().getInVault().containsKey(plr.getUniqueId().toString())) {
+                    if (PlayerVaults.getInstance().getOpenVaults().isViewing(plr.getUniqueId())) {
                         // don't let them open another vault.
                         sender.sendMessage("ALREADY HAS A VAULT OPEN: " + plr.getName());
                         return true;
                     }
-                    int number;
                     try {
-                        number = Integer.parseInt(vaultId);
+                        Integer.parseInt(vaultId);
                     } catch (NumberFormatException e) {
                         sender.sendMessage("NOT NUMBER");
                         return true;
                     }
-                    if (VaultOperations.openOtherVault(plr, owner, vaultId)) {
-                        PlayerVaults.getInstance().getInVault().put(plr.getUniqueId().toString(), new VaultViewInfo(owner, number));
-                    } else {
+                    if (!VaultOperations.openOtherVault(plr, owner, vaultId)) {
                         sender.sendMessage("FAILED!?");
                     }
                 }
+            } else if (args[0].equals("backups") || args[0].equals("restore")) {
+                this.backups(sender, label, args);
             }
         }
         return true;
     }
+
+    private void backups(CommandSender sender, String label, String[] args) {
+        BackupStore backups = VaultManager.getInstance().getBackups();
+        if (backups == null) {
+            sender.sendMessage("BACKUPS DISABLED");
+            return;
+        }
+        boolean restore = args[0].equals("restore");
+        if (args.length < 2) {
+            sender.sendMessage(restore ? "/" + label + " restore <owner> [backup]" : "/" + label + " backups <owner>");
+            return;
+        }
+        String owner = Bukkit.getOfflinePlayer(args[1]).getUniqueId().toString();
+        int backup = 1;
+        if (restore && args.length > 2) {
+            try {
+                backup = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage("NOT NUMBER");
+                return;
+            }
+        }
+        if (restore && this.isOpen(owner)) {
+            sender.sendMessage("VAULT OPEN, TRY AGAIN ONCE CLOSED");
+            return;
+        }
+
+        final int chosen = backup;
+        this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            try {
+                List<Long> generations = backups.getGenerations(owner);
+                if (!restore) {
+                    sender.sendMessage(generations.size() + " backups of " + owner + ", newest first:");
+                    for (int i = 0; i < generations.size(); i++) {
+                        sender.sendMessage((i + 1) + ": " + new Date(generations.get(i)));
+                    }
+                } else if (chosen < 1 || chosen > generations.size()) {
+                    sender.sendMessage("NO SUCH BACKUP, " + owner + " HAS " + generations.size());
+                } else {
+                    Map<Integer, ItemStack[]> vaults = backups.restore(owner, generations.get(chosen - 1));
+                    VaultManager.getInstance().restoreVaults(owner, vaults);
+                    sender.sendMessage("Restored " + vaults.size() + " vaults of " + owner + " from " + new Date(generations.get(chosen - 1)));
+                }
+            } catch (IOException e) {
+                this.plugin.getLogger().log(Level.SEVERE, "Failed to " + (restore ? "restore" : "list") + " backups of " + owner, e);
+                sender.sendMessage("FAILED: " + e.getMessage());
+            }
+        });
+    }
+
+    private boolean isOpen(String owner) {
+        return this.plugin.getOpenVaults().isOpen(owner);
+    }
 }
@@ -21,6 +21,7 @@ package com.drtshock.playervaults.commands;
 import com.drtshock.playervaults.PlayerVaults;
 import com.drtshock.playervaults.converters.*;
 import com.drtshock.playervaults.util.Permission;
+import com.drtshock.playervaults.vaultmanagement.VaultManager;
 import com.drtshock.playervaults.vaultmanagement.VaultOperations;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -80,6 +81,7 @@ public class ConvertCommand implements CommandExecutor {
                                 converted += converter.run(sender);
                             }
                         }
+                        VaultManager.getInstance().flush();
                         VaultOperations.setLocked(false);
                         this.plugin.getTL().convertComplete().title().with("count", converted + "").send(sender);
                     }, 5);
@@ -21,6 +21,9 @@ package com.drtshock.playervaults.commands;
 import com.drtshock.playervaults.PlayerVaults;
 import com.drtshock.playervaults.util.ComponentDispatcher;
 import com.drtshock.playervaults.util.Permission;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import com.drtshock.playervaults.vaultmanagement.ItemCache;
+import com.drtshock.playervaults.vaultmanagement.VaultManager;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.minimessage.MiniMessage;
@@ -69,6 +72,14 @@ public class HelpMeCommand implements CommandExecutor {
                 return true;
             }
             mainInfo.append('\n');
+            ItemCache itemCache = CardboardBoxSerialization.getItemCache();
+            mainInfo.append("Item cache: ").append(itemCache.getHitRate()).append("% hits (").append(itemCache.getHits()).append(" hits, ").append(itemCache.getMisses()).append(" misses)\n");
+            mainInfo.append("Vault saves: ").append(VaultManager.getInstance().getSavesWritten()).append(" written, ").append(VaultManager.getInstance().getSavesSkipped()).append(" skipped as unchanged\n");
+            String storageStatus = VaultManager.getInstance().getStorage().getStatus();
+            if (storageStatus != null) {
+                mainInfo.append(storageStatus).append('\n');
+            }
+            mainInfo.append('\n');
             mainInfo.append("Command run by: ").append(sender.getName()).append('\n');
             mainInfo.append('\n');
             mainInfo.append("Plugins:\n");
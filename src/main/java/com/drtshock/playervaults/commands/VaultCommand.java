@@ -22,15 +22,16 @@ import com.drtshock.playervaults.PlayerVaults;
 import com.drtshock.playervaults.util.Permission;
 import com.drtshock.playervaults.vaultmanagement.VaultManager;
 import com.drtshock.playervaults.vaultmanagement.VaultOperations;
-import com.drtshock.playervaults.vaultmanagement.VaultViewInfo;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 
+import java.util.Set;
+import java.util.TreeSet;
+
 public class VaultCommand implements CommandExecutor {
     private final PlayerVaults plugin;
 
@@ -46,16 +47,14 @@ public class VaultCommand implements CommandExecutor {
         }
 
         if (sender instanceof Player player) {
-            if (PlayerVaults.getInstance().getInVault().containsKey(player.getUniqueId().toString())) {
+            if (PlayerVaults.getInstance().getOpenVaults().isViewing(player.getUniqueId())) {
                 // don't let them open another vault.
                 return true;
             }
 
             switch (args.length) {
                 case 1:
-                    if (VaultOperations.openOwnVault(player, args[0], true)) {
-                        PlayerVaults.getInstance().getInVault().put(player.getUniqueId().toString(), new VaultViewInfo(player.getUniqueId().toString(), Integer.parseInt(args[0])));
-                    }
+                    VaultOperations.openOwnVault(player, args[0], true);
                     break;
                 case 2:
                     if (!player.hasPermission(Permission.ADMIN)) {
@@ -65,13 +64,13 @@ public class VaultCommand implements CommandExecutor {
 
                     if ("list".equals(args[1])) {
                         String target = getTarget(args[0]);
-                        YamlConfiguration file = VaultManager.getInstance().getPlayerVaultFile(target, false);
-                        if (file == null) {
+                        Set<Integer> vaults = new TreeSet<>(VaultManager.getInstance().getVaultNumbers(target));
+                        if (vaults.isEmpty()) {
                             this.plugin.getTL().vaultDoesNotExist().title().send(sender);
                         } else {
                             StringBuilder sb = new StringBuilder();
-                            for (String key : file.getKeys(false)) {
-                                sb.append(key.replace("vault", "")).append(" ");
+                            for (int vault : vaults) {
+                                sb.append(vault).append(" ");
                             }
 
                             this.plugin.getTL().existingVaults().title().with("player", args[0]).with("vault", sb.toString().trim()).send(sender);
@@ -79,9 +78,8 @@ public class VaultCommand implements CommandExecutor {
                         break;
                     }
 
-                    int number;
                     try {
-                        number = Integer.parseInt(args[1]);
+                        Integer.parseInt(args[1]);
                     } catch (NumberFormatException e) {
                         this.plugin.getTL().mustBeNumber().title().send(sender);
                         return true;
@@ -89,9 +87,7 @@ public class VaultCommand implements CommandExecutor {
 
                     String target = getTarget(args[0]);
 
-                    if (VaultOperations.openOtherVault(player, target, args[1])) {
-                        PlayerVaults.getInstance().getInVault().put(player.getUniqueId().toString(), new VaultViewInfo(target, number));
-                    } else {
+                    if (!VaultOperations.openOtherVault(player, target, args[1])) {
                         this.plugin.getTL().noOwnerFound().title().with("player", args[0]).send(sender);
                     }
                     break;
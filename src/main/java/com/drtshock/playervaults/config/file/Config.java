@@ -91,6 +91,10 @@ public class Config {
         private boolean enabled = false;
         @Comment("Time, in days, since last edit")
         private int daysSinceLastEdit = 30;
+        @Comment("Hours between cleanups, 0 to only clean up during startup")
+        private int intervalHours = 24;
+        @Comment("Only log what would be purged, without deleting anything")
+        private boolean dryRun = false;
 
         public boolean isEnabled() {
             return this.enabled;
@@ -99,22 +103,76 @@ public class Config {
         public int getDaysSinceLastEdit() {
             return this.daysSinceLastEdit;
         }
+
+        public int getIntervalHours() {
+            return this.intervalHours;
+        }
+
+        public boolean isDryRun() {
+            return this.dryRun;
+        }
     }
 
     public class Storage {
         public class FlatFile {
             @Comment("""
                     Backups
-                     Enabling this will create backups of vaults automagically.""")
+                     Enabling this will create backups of vaults automagically.
+                     Only vaults that changed are backed up, unchanged vaults share space between backups.
+                     Restore with /pvconsole restore <owner> [backup]""")
             private boolean backups = true;
+            @Comment("How many backups to keep per player")
+            private int backupGenerations = 5;
+            @Comment("Minutes between backing up changed vaults")
+            private int backupIntervalMinutes = 30;
+            @Comment("Most vault files kept loaded in memory. Online players' files are loaded on join.")
+            private int cacheMaxFiles = 1000;
+            @Comment("Most memory, in megabytes of vault file size, kept loaded.")
+            private int cacheMaxMegabytes = 128;
+            @Comment("""
+                    Lazy loading
+                     Instead of loading a player's whole vault file on join, only note which vaults it holds.
+                     Each vault is then loaded the first time it's opened. Saves less memory and join time the more vaults players have.""")
+            private boolean lazyLoad = false;
 
             public boolean isBackups() {
                 return this.backups;
             }
+
+            public int getBackupGenerations() {
+                return this.backupGenerations;
+            }
+
+            public int getBackupIntervalMinutes() {
+                return this.backupIntervalMinutes;
+            }
+
+            public int getCacheMaxFiles() {
+                return this.cacheMaxFiles;
+            }
+
+            public int getCacheMaxMegabytes() {
+                return this.cacheMaxMegabytes;
+            }
+
+            public boolean isLazyLoad() {
+                return this.lazyLoad;
+            }
         }
 
         private FlatFile flatFile = new FlatFile();
         private String storageType = "flatfile";
+        @Comment("How many distinct items to keep serialized in memory. Speeds up saving vaults full of the same items. 0 to disable")
+        private int itemCacheSize = 2048;
+        @Comment("How long to gather vault saves before writing them together, in milliseconds. Saves in one window share a single disk sync")
+        private int saveWindowMillis = 50;
+        @Comment("""
+                Journal
+                 Instead of rewriting vault files on every save, append saves to a journal and fold them into the storage above in the background.
+                 Turns many small rewrites into sequential appends, which helps on slow or network storage.""")
+        private boolean journal = false;
+        @Comment("Seconds between folding the journal into storage")
+        private int journalCompactSeconds = 60;
 
         public FlatFile getFlatFile() {
             return this.flatFile;
@@ -123,6 +181,22 @@ public class Config {
         public String getStorageType() {
             return this.storageType;
         }
+
+        public int getItemCacheSize() {
+            return this.itemCacheSize;
+        }
+
+        public int getSaveWindowMillis() {
+            return this.saveWindowMillis;
+        }
+
+        public boolean isJournal() {
+            return this.journal;
+        }
+
+        public int getJournalCompactSeconds() {
+            return this.journalCompactSeconds;
+        }
     }
 
     @Comment("""
@@ -165,14 +239,20 @@ public class Config {
     @Comment("""
             Cleanup
              Enabling this will purge vaults that haven't been touched in the specified time frame.
-              Reminder: This is only checked during startup.
+              Vaults count as touched when edited, opened or when their owner joins.
+              Reminder: This is checked during startup and then every intervalHours.
                         This will not lag your server or touch the backups folder.""")
     private PurgePlanet purge = new PurgePlanet();
 
     @Comment("Sets the highest vault amount this plugin will test perms for")
     private int maxVaultAmountPermTest = 99;
 
-    @Comment("Storage option. Currently only flatfile, but soon more! :)")
+    @Comment("""
+            Storage option
+             flatfile - one YAML file per player
+             pervault - one file per vault
+             sqlite - an SQLite database, vaults.db
+             Switching from flatfile to pervault or sqlite migrates existing vaults.""")
     private Storage storage = new Storage();
 
     public void setFromConfig(Logger l, FileConfiguration c) {
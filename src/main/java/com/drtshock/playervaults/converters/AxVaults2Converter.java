@@ -19,10 +19,9 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
-import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.util.io.BukkitObjectInputStream;
@@ -41,9 +40,8 @@ public class AxVaults2Converter implements Converter {
 
     @SuppressWarnings("unchecked")
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
 
         Plugin axVaultsPlugin = plugin.getServer().getPluginManager().getPlugin("AxVaults");
         Object database;
@@ -99,9 +97,7 @@ public class AxVaults2Converter implements Converter {
                             initiator.getServer().getLogger().log(Level.WARNING, "Failed to load vault " + id + " for " + uuid, e);
                             continue;
                         }
-                        Inventory inventory = Bukkit.createInventory(null, items.length % 9 == 0 ? items.length : (6 * 9), "Converting!");
-                        inventory.setContents(items);
-                        vaultManager.saveVault(inventory, uuid, id);
+                        sink.accept(uuid, id, items);
                     }
                 }
             }
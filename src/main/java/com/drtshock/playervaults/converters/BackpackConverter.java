@@ -20,6 +20,7 @@ package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
 import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
@@ -40,7 +41,7 @@ import java.util.UUID;
 public class BackpackConverter implements Converter {
 
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
 
         PlayerVaults plugin = PlayerVaults.getInstance();
         File destination = new File(plugin.getDataFolder().getParentFile(), "Backpack" + File.separator + "backpacks");
@@ -54,7 +55,7 @@ public class BackpackConverter implements Converter {
         int vaultNum = 1;
         for (File file : worldDirs != null ? worldDirs : new File[0]) {
             if (file.isDirectory()) {
-                converted += convert(file, vaultNum);
+                converted += convert(file, vaultNum, sink);
                 vaultNum++;
             }
         }
@@ -62,7 +63,7 @@ public class BackpackConverter implements Converter {
         return converted;
     }
 
-    private int convert(File worldFolder, int intoVaultNum) {
+    private int convert(File worldFolder, int intoVaultNum, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
         VaultManager vaults = VaultManager.getInstance();
         int converted = 0;
@@ -96,7 +97,7 @@ public class BackpackConverter implements Converter {
                             // Overwrite
                             vault.setItem(Integer.parseInt(key.split(" ")[1]), item);
                         }
-                        vaults.saveVault(vault, uuid.toString(), intoVaultNum);
+                        sink.accept(uuid.toString(), intoVaultNum, vault.getContents());
                         converted++;
 
                         if (System.currentTimeMillis() - lastUpdate >= 1500) {
@@ -18,6 +18,8 @@
 
 package com.drtshock.playervaults.converters;
 
+import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.command.CommandSender;
 
 /**
@@ -27,13 +29,26 @@ import org.bukkit.command.CommandSender;
  */
 public interface Converter {
 
+    /**
+     * Converts the other plugin's data into a new sink, waiting until it's all written.
+     *
+     * @param initiator the initiator of the conversion. May be null
+     * @return the number of vaults converted. Returns 0 on none converted or -1 if no vaults were converted.
+     */
+    default int run(CommandSender initiator) {
+        try (VaultSink sink = VaultManager.getInstance().openSink()) {
+            return this.run(initiator, sink);
+        }
+    }
+
     /**
      * Converts the other plugin's data.
      *
      * @param initiator the initiator of the conversion. May be null
+     * @param sink where to put converted vaults
      * @return the number of vaults converted. Returns 0 on none converted or -1 if no vaults were converted.
      */
-    int run(CommandSender initiator);
+    int run(CommandSender initiator, VaultSink sink);
 
     /**
      * Determines if this converter is applicable for converting to PlayerVaults. This may check for the existance of a
@@ -19,7 +19,7 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
@@ -31,9 +31,8 @@ import java.nio.file.Path;
 public class Cosmic2Converter implements Converter {
 
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaults = VaultManager.getInstance();
         // Cosmic 2.x
         Path path = plugin.getDataFolder().toPath().getParent().resolve("CosmicVaults").resolve("Data.yml");
         if (!Files.exists(path)) {
@@ -62,7 +61,7 @@ public class Cosmic2Converter implements Converter {
                 for (String slotS : vault.getKeys(false)) {
                     inventory.setItem(Integer.parseInt(slotS), vault.getItemStack(slotS));
                 }
-                vaults.saveVault(inventory, playerId, Integer.parseInt(vaultId));
+                sink.accept(playerId, Integer.parseInt(vaultId), inventory.getContents());
                 converted++;
                 if (System.currentTimeMillis() - lastUpdate >= 1500) {
                     plugin.getLogger().info(converted + " vaults have been converted...");
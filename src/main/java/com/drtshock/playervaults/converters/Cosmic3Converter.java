@@ -19,7 +19,7 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
@@ -31,9 +31,8 @@ import java.nio.file.Path;
 public class Cosmic3Converter implements Converter {
 
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
         // Cosmic 3.x
         Path path = plugin.getDataFolder().toPath().getParent().resolve("CosmicVaults").resolve("vaults.yml");
         if (!Files.exists(path)) {
@@ -66,7 +65,7 @@ public class Cosmic3Converter implements Converter {
             for (String slotS : contents.getKeys(false)) {
                 inventory.setItem(Integer.parseInt(slotS), contents.getItemStack(slotS));
             }
-            vaultManager.saveVault(inventory, owner, number);
+            sink.accept(owner, number, inventory.getContents());
             converted++;
             if (System.currentTimeMillis() - lastUpdate >= 1500) {
                 plugin.getLogger().info(converted + " vaults have been converted...");
@@ -19,7 +19,7 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.command.CommandSender;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.plugin.Plugin;
@@ -41,9 +41,8 @@ public class EnderVaultsConverter implements Converter {
 
     @SuppressWarnings("unchecked")
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
 
         Path path = plugin.getDataFolder().toPath().getParent().resolve("EnderVaults").resolve("data");
         if (!Files.isDirectory(path)) {
@@ -101,7 +100,7 @@ public class EnderVaultsConverter implements Converter {
                         Inventory inventory = (Inventory) getInventory.invoke(vault);
                         Map<String, Object> meta = (Map<String, Object>) getMetadata.invoke(vault);
                         Integer order = (Integer) meta.get("order");
-                        vaultManager.saveVault(inventory, f.getFileName().toString(), order);
+                        sink.accept(f.getFileName().toString(), order, inventory.getContents());
                     }
                 } catch (Throwable e) {
                     e.printStackTrace();
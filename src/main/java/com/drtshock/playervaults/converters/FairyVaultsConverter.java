@@ -19,10 +19,9 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
-import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 import java.lang.reflect.Field;
@@ -37,9 +36,8 @@ import java.util.logging.Level;
 public class FairyVaultsConverter implements Converter {
 
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
 
 
         Plugin fairyPlugin = plugin.getServer().getPluginManager().getPlugin("FairyVaults");
@@ -76,9 +74,7 @@ public class FairyVaultsConverter implements Converter {
                     byte[] items = results.getBytes("itemset");
                     Object virtInv = deserialize.invoke(null, (Object) items);
                     ItemStack[] itemsStacks = (ItemStack[]) getItems.invoke(virtInv);
-                    Inventory inventory = Bukkit.createInventory(null, items.length % 9 == 0 && items.length < 55 ? items.length : (6 * 9), "Converting!");
-                    inventory.setContents(itemsStacks);
-                    vaultManager.saveVault(inventory, uuid, vaultIds.computeIfAbsent(uuid, k -> new AtomicInteger()).incrementAndGet());
+                    sink.accept(uuid, vaultIds.computeIfAbsent(uuid, k -> new AtomicInteger()).incrementAndGet(), itemsStacks);
                     count++;
                 } catch (Exception e) {
                     plugin.getLogger().log(Level.WARNING, "Invalid data found for vault id: " + results.getInt("vaultid"), e);
@@ -1,7 +1,7 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
 import org.bukkit.inventory.Inventory;
@@ -17,9 +17,8 @@ public class MaltsConverter implements Converter {
 
 
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
         int convertedCount = 0;
 
         try {
@@ -33,7 +32,7 @@ public class MaltsConverter implements Converter {
                     int id = (int) vault.getClass().getMethod("getId").invoke(vault);
                     Inventory inventory = (Inventory) vault.getClass().getMethod("getInventory").invoke(vault);
 
-                    vaultManager.saveVault(inventory, owner.toString(), id);
+                    sink.accept(owner.toString(), id, inventory.getContents());
                     convertedCount++;
                 } catch (ReflectiveOperationException e) {
                     plugin.getLogger().severe("Failed to convert a vault: " + e.getMessage());
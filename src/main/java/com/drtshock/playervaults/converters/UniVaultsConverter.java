@@ -1,11 +1,9 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
-import org.bukkit.Bukkit;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.Material;
 import org.bukkit.command.CommandSender;
-import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.util.io.BukkitObjectInputStream;
@@ -33,9 +31,8 @@ import java.util.stream.Stream;
 
 public class UniVaultsConverter implements Converter {
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
 
         AtomicInteger counter = new AtomicInteger(0);
 
@@ -70,9 +67,7 @@ public class UniVaultsConverter implements Converter {
                             if (cursed) {
                                 items = Arrays.copyOfRange(items, 0, items.length - 9);
                             }
-                            Inventory inventory = Bukkit.createInventory(null, items.length % 9 == 0 ? items.length : (6 * 9), "Converting!");
-                            inventory.setContents(items);
-                            vaultManager.saveVault(inventory, uuid, id);
+                            sink.accept(uuid, id, items);
                             counter.incrementAndGet();
                         }
                     } catch (Exception e) {
@@ -19,11 +19,9 @@
 package com.drtshock.playervaults.converters;
 
 import com.drtshock.playervaults.PlayerVaults;
-import com.drtshock.playervaults.vaultmanagement.VaultManager;
-import org.bukkit.Bukkit;
+import com.drtshock.playervaults.vaultmanagement.VaultSink;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.YamlConfiguration;
-import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 
@@ -45,9 +43,8 @@ public class XVaultsConverter implements Converter {
 
     @SuppressWarnings("unchecked")
     @Override
-    public int run(CommandSender initiator) {
+    public int run(CommandSender initiator, VaultSink sink) {
         PlayerVaults plugin = PlayerVaults.getInstance();
-        VaultManager vaultManager = VaultManager.getInstance();
 
         Path xvaultsFolder = PlayerVaults.getInstance().getDataFolder().getParentFile().toPath().resolve("XVaults");
 
@@ -61,9 +58,7 @@ public class XVaultsConverter implements Converter {
                 yaml.getKeys(false).forEach(k -> {
                     try {
                         ItemStack[] items = ((List<?>) yaml.get(k)).toArray(new ItemStack[0]);
-                        Inventory inventory = Bukkit.createInventory(null, items.length % 9 == 0 ? items.length : (6 * 9), "Converting!");
-                        inventory.setContents(items);
-                        vaultManager.saveVault(inventory, k, curVault);
+                        sink.accept(k, curVault, items);
                         uuids.add(k);
                     } catch (Exception e) {
                         e.printStackTrace();
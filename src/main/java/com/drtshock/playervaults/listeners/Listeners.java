@@ -21,12 +21,13 @@ package com.drtshock.playervaults.listeners;
 import com.drtshock.playervaults.PlayerVaults;
 import com.drtshock.playervaults.config.file.Translation;
 import com.drtshock.playervaults.events.BlacklistedItemEvent;
+import com.drtshock.playervaults.util.ItemRules;
 import com.drtshock.playervaults.util.Permission;
+import com.drtshock.playervaults.vaultmanagement.OpenVaultRegistry;
 import com.drtshock.playervaults.vaultmanagement.VaultHolder;
+import com.drtshock.playervaults.vaultmanagement.VaultKey;
 import com.drtshock.playervaults.vaultmanagement.VaultManager;
-import com.drtshock.playervaults.vaultmanagement.VaultViewInfo;
 import org.bukkit.Bukkit;
-import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
@@ -34,21 +35,17 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 public class Listeners implements Listener {
@@ -61,30 +58,22 @@ public class Listeners implements Listener {
     }
 
     public void saveVault(Player player, Inventory inventory) {
-        VaultViewInfo info = plugin.getInVault().remove(player.getUniqueId().toString());
-        if (info != null) {
-            boolean badDay = false;
+        OpenVaultRegistry.Exit exit = plugin.getOpenVaults().leave(player.getUniqueId());
+        if (exit != null) {
+            VaultKey info = exit.vault();
             if (!(inventory.getHolder() instanceof VaultHolder)) {
                 PlayerVaults.getInstance().getLogger().severe("Encountered lost vault situation for player '" + player.getName() + "', instead finding a '" + inventory.getType() + "' - attempting to save the vault if no viewers present");
-                badDay = true;
-                inventory = plugin.getOpenInventories().get(info.toString());
-                if (inventory == null) {
-                    PlayerVaults.getInstance().getLogger().severe("Could not find inventory");
-                    return;
-                }
             }
-            Inventory inv = Bukkit.createInventory(null, inventory.getSize());
-            inv.setContents(inventory.getContents().clone());
-
+            inventory = exit.inventory();
+            if (inventory == null) {
+                PlayerVaults.debug("Vault " + info + " is no longer open, not saving");
+                return;
+            }
             PlayerVaults.debug(inventory.getType() + " " + inventory.getClass().getSimpleName());
-            if (inventory.getViewers().size() <= 1) {
+            if (exit.last()) {
                 PlayerVaults.debug("Saving!");
-                vaultManager.saveVault(inv, info.getVaultName(), info.getNumber());
-                plugin.getOpenInventories().remove(info.toString());
+                vaultManager.saveVault(inventory, info.getHolder(), info.getNumber());
             } else {
-                if (badDay) {
-                    PlayerVaults.getInstance().getLogger().severe("Viewers size >0: " + inventory.getViewers().stream().map(HumanEntity::getName).collect(Collectors.joining(", ")));
-                }
                 PlayerVaults.debug("Other viewers found, not saving! " + inventory.getViewers().stream().map(HumanEntity::getName).collect(Collectors.joining(" ")));
             }
         }
@@ -97,7 +86,7 @@ public class Listeners implements Listener {
         }
         Player p = event.getPlayer();
         // The player will either quit, die, or close the inventory at some point
-        if (plugin.getInVault().containsKey(p.getUniqueId().toString())) {
+        if (plugin.getOpenVaults().isViewing(p.getUniqueId())) {
             return;
         }
         saveVault(p, p.getOpenInventory().getTopInventory());
@@ -106,6 +95,13 @@ public class Listeners implements Listener {
     @EventHandler(priority = EventPriority.HIGH)
     public void onQuit(PlayerQuitEvent event) {
         saveVault(event.getPlayer(), event.getPlayer().getOpenInventory().getTopInventory());
+        plugin.getEntitlements().invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(PlayerChangedWorldEvent event) {
+        // Permissions can be per world.
+        plugin.getEntitlements().invalidate(event.getPlayer().getUniqueId());
     }
 
     @EventHandler(priority = EventPriority.HIGH)
@@ -122,7 +118,7 @@ public class Listeners implements Listener {
     public void onInteractEntity(PlayerInteractEntityEvent event) {
         Player player = event.getPlayer();
         EntityType type = event.getRightClicked().getType();
-        if ((type == EntityType.VILLAGER || type == EntityType.MINECART) && PlayerVaults.getInstance().getInVault().containsKey(player.getUniqueId().toString())) {
+        if ((type == EntityType.VILLAGER || type == EntityType.MINECART) && PlayerVaults.getInstance().getOpenVaults().isViewing(player.getUniqueId())) {
             event.setCancelled(true);
         }
     }
@@ -135,34 +131,26 @@ public class Listeners implements Listener {
 
         Player player = (Player) event.getWhoClicked();
 
+        // Cheap registry lookup first, getHolder() can snapshot a block state for every chest click on the server.
+        VaultKey info = PlayerVaults.getInstance().getOpenVaults().getViewing(player.getUniqueId());
+        if (info == null) {
+            return;
+        }
         Inventory clickedInventory = event.getClickedInventory();
-        if (clickedInventory != null) {
-            VaultViewInfo info = PlayerVaults.getInstance().getInVault().get(player.getUniqueId().toString());
-            if (info != null) {
-                int num = info.getNumber();
-                String inventoryTitle = event.getView().getTitle();
-                String title = this.plugin.getVaultTitle(String.valueOf(num));
-                if (inventoryTitle.equalsIgnoreCase(title)) {
-                    ItemStack[] items = new ItemStack[2];
-                    items[0] = event.getCurrentItem();
-                    if (event.getHotbarButton() > -1 && event.getWhoClicked().getInventory().getItem(event.getHotbarButton()) != null) {
-                        items[1] = event.getWhoClicked().getInventory().getItem(event.getHotbarButton());
-                    }
-                    if (event.getClick().name().equals("SWAP_OFFHAND")) {
-                        items[1] = event.getWhoClicked().getInventory().getItemInOffHand();
-                    }
+        // The holder tells vaults apart from other inventories, no need to compare titles.
+        if (clickedInventory != null && event.getView().getTopInventory().getHolder() instanceof VaultHolder) {
+            ItemStack other = null;
+            if (event.getHotbarButton() > -1) {
+                other = event.getWhoClicked().getInventory().getItem(event.getHotbarButton());
+            }
+            if (event.getClick().name().equals("SWAP_OFFHAND")) {
+                other = event.getWhoClicked().getInventory().getItemInOffHand();
+            }
 
-                    if (!player.hasPermission(Permission.BYPASS_BLOCKED_ITEMS)) {
-                        for (ItemStack item : items) {
-                            if (item == null) {
-                                continue;
-                            }
-                            if (this.isBlocked(player, item, info)) {
-                                event.setCancelled(true);
-                                return;
-                            }
-                        }
-                    }
+            if (!player.hasPermission(Permission.BYPASS_BLOCKED_ITEMS)) {
+                ItemStack current = event.getCurrentItem();
+                if ((current != null && this.isBlocked(player, current, info)) || (other != null && this.isBlocked(player, other, info))) {
+                    event.setCancelled(true);
                 }
             }
         }
@@ -176,55 +164,76 @@ public class Listeners implements Listener {
 
         Player player = (Player) event.getWhoClicked();
 
+        VaultKey info = PlayerVaults.getInstance().getOpenVaults().getViewing(player.getUniqueId());
+        if (info == null) {
+            return;
+        }
         Inventory clickedInventory = event.getInventory();
-        if (clickedInventory != null) {
-            VaultViewInfo info = PlayerVaults.getInstance().getInVault().get(player.getUniqueId().toString());
-            if (info != null) {
-                int num = info.getNumber();
-                String inventoryTitle = event.getView().getTitle();
-                String title = this.plugin.getVaultTitle(String.valueOf(num));
-                if ((inventoryTitle != null && inventoryTitle.equalsIgnoreCase(title)) && event.getNewItems() != null) {
-                    if (!player.hasPermission(Permission.BYPASS_BLOCKED_ITEMS)) {
-                        for (ItemStack item : event.getNewItems().values()) {
-                            if (this.isBlocked(player, item, info)) {
-                                event.setCancelled(true);
-                                return;
-                            }
-                        }
+        if (clickedInventory != null && event.getNewItems() != null && clickedInventory.getHolder() instanceof VaultHolder) {
+            if (!player.hasPermission(Permission.BYPASS_BLOCKED_ITEMS)) {
+                for (ItemStack item : event.getNewItems().values()) {
+                    if (this.isBlocked(player, item, info)) {
+                        event.setCancelled(true);
+                        return;
                     }
                 }
             }
         }
     }
 
-    private boolean isBlocked(Player player, ItemStack item, VaultViewInfo info) {
-        List<BlacklistedItemEvent.Reason> reasons = new ArrayList<>();
-        Map<BlacklistedItemEvent.Reason, Translation.TL.Builder> responses = new HashMap<>();
-        if (PlayerVaults.getInstance().isBlockWithModelData() && ((item.getItemMeta() instanceof ItemMeta i) && i.hasCustomModelData())) {
-            reasons.add(BlacklistedItemEvent.Reason.HAS_MODEL_DATA);
-            responses.put(BlacklistedItemEvent.Reason.HAS_MODEL_DATA, this.plugin.getTL().blockedItemWithModelData().title());
-        }
-        if (PlayerVaults.getInstance().isBlockWithoutModelData() && !((item.getItemMeta() instanceof ItemMeta i) && i.hasCustomModelData())) {
-            reasons.add(BlacklistedItemEvent.Reason.HAS_NO_MODEL_DATA);
-            responses.put(BlacklistedItemEvent.Reason.HAS_NO_MODEL_DATA, this.plugin.getTL().blockedItemWithoutModelData().title());
-        }
-        if (PlayerVaults.getInstance().isBlockedMaterial(item.getType())) {
-            reasons.add(BlacklistedItemEvent.Reason.TYPE);
-            responses.put(BlacklistedItemEvent.Reason.TYPE, this.plugin.getTL().blockedItem().title().with("item", item.getType().name()));
-        }
-        Set<Enchantment> ench = PlayerVaults.getInstance().isEnchantmentBlocked(item);
-        if (!ench.isEmpty()) {
-            reasons.add(BlacklistedItemEvent.Reason.ENCHANTMENT);
-            responses.put(BlacklistedItemEvent.Reason.ENCHANTMENT, this.plugin.getTL().blockedItemWithEnchantments().title());
-        }
-        if (!reasons.isEmpty()) {
-            BlacklistedItemEvent event = new BlacklistedItemEvent(player, item, reasons, info.getVaultName(), info.getNumber());
-            Bukkit.getPluginManager().callEvent(event);
-            if (!event.isCancelled()) {
-                responses.get(event.getReasons().getFirst()).send(player);
-                return true;
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onVaultClick(InventoryClickEvent event) {
+        // The registry lookup is cheap, getHolder() can snapshot a block state for every chest click on the server.
+        if (!this.plugin.getOpenVaults().isViewing(event.getWhoClicked().getUniqueId())) {
+            return;
+        }
+        Inventory top = event.getView().getTopInventory();
+        if (!(top.getHolder() instanceof VaultHolder vaultHolder)) {
+            return;
+        }
+        // Clicks in the player's own inventory only matter if they move items into or out of the vault.
+        if (event.getRawSlot() < top.getSize() || event.isShiftClick() || event.getAction() == InventoryAction.COLLECT_TO_CURSOR) {
+            vaultHolder.markModified();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onVaultDrag(InventoryDragEvent event) {
+        if (!this.plugin.getOpenVaults().isViewing(event.getWhoClicked().getUniqueId())) {
+            return;
+        }
+        Inventory top = event.getView().getTopInventory();
+        if (!(top.getHolder() instanceof VaultHolder vaultHolder)) {
+            return;
+        }
+        for (int slot : event.getRawSlots()) {
+            if (slot < top.getSize()) {
+                vaultHolder.markModified();
+                return;
             }
         }
+    }
+
+    private boolean isBlocked(Player player, ItemStack item, VaultKey info) {
+        int reasons = this.plugin.getItemRules().check(item);
+        if (reasons == 0) {
+            return false;
+        }
+        BlacklistedItemEvent event = new BlacklistedItemEvent(player, item, ItemRules.getReasons(reasons), info.getHolder(), info.getNumber());
+        Bukkit.getPluginManager().callEvent(event);
+        if (!event.isCancelled()) {
+            this.getResponse(event.getReasons().getFirst(), item).send(player);
+            return true;
+        }
         return false;
     }
+
+    private Translation.TL.Builder getResponse(BlacklistedItemEvent.Reason reason, ItemStack item) {
+        return switch (reason) {
+            case HAS_MODEL_DATA -> this.plugin.getTL().blockedItemWithModelData().title();
+            case HAS_NO_MODEL_DATA -> this.plugin.getTL().blockedItemWithoutModelData().title();
+            case TYPE -> this.plugin.getTL().blockedItem().title().with("item", item.getType().name());
+            case ENCHANTMENT -> this.plugin.getTL().blockedItemWithEnchantments().title();
+        };
+    }
 }
\ No newline at end of file
@@ -21,7 +21,6 @@ package com.drtshock.playervaults.listeners;
 import com.drtshock.playervaults.PlayerVaults;
 import com.drtshock.playervaults.util.Permission;
 import com.drtshock.playervaults.vaultmanagement.VaultOperations;
-import com.drtshock.playervaults.vaultmanagement.VaultViewInfo;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.OfflinePlayer;
@@ -60,7 +59,7 @@ public class SignListener implements Listener {
         }
         Block block = event.getClickedBlock();
         if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
-            if (PlayerVaults.getInstance().getInVault().containsKey(player.getUniqueId().toString())) {
+            if (PlayerVaults.getInstance().getOpenVaults().isViewing(player.getUniqueId())) {
                 // Different inventories that we don't want the player to open.
                 if (isInvalidBlock(block)) {
                     event.setCancelled(true);
@@ -106,7 +105,7 @@ public class SignListener implements Listener {
                 int z = l.getBlockZ();
                 if (plugin.getSigns().getKeys(false).contains(world + ";;" + x + ";;" + y + ";;" + z)) {
                     PlayerVaults.debug("Player " + player.getName() + " clicked sign at world(" + x + "," + y + "," + z + ")");
-                    if (PlayerVaults.getInstance().getInVault().containsKey(player.getUniqueId().toString())) {
+                    if (PlayerVaults.getInstance().getOpenVaults().isViewing(player.getUniqueId())) {
                         // don't let them open another vault.
                         PlayerVaults.debug("Player " + player.getName() + " denied sign vault because already in a vault!");
                         return;
@@ -125,9 +124,7 @@ public class SignListener implements Listener {
                         }
                         if (self) {
                             // We already checked that they can use signs, now lets check if they have this many vaults.
-                            if (VaultOperations.openOwnVault(player, numS, false)) {
-                                PlayerVaults.getInstance().getInVault().put(player.getUniqueId().toString(), new VaultViewInfo(player.getUniqueId().toString(), num));
-                            } else {
+                            if (!VaultOperations.openOwnVault(player, numS, false)) {
                                 PlayerVaults.debug("Player " + player.getName() + " failed to open sign vault!");
                                 return;
                             }
@@ -0,0 +1,112 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces files so that a crash leaves either the old or the new version, never a partial or missing file. New
+ * contents go to a temp file next to the target, which is synced and then atomically moved over the target.
+ * <p>
+ * Writes can be staged and committed together, so a batch of saves costs one round of syncs instead of one per
+ * file. Staged files are not visible until committed. Not thread-safe, each user keeps its own.
+ */
+class AtomicWriter {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Target - temp file. A target staged twice keeps only the latest.
+    private final Map<Path, Path> staged = new LinkedHashMap<>();
+
+    /**
+     * Writes the new contents of a file, to be put in place on the next {@link #commit()}.
+     *
+     * @param target file to replace
+     * @param data new contents
+     * @throws IOException if writing fails
+     */
+    void stage(Path target, ByteBuffer... data) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            VaultFileFormat.writeFully(channel, data);
+        }
+        this.staged.put(target, temp);
+    }
+
+    /**
+     * Replaces a single file right away.
+     *
+     * @param target file to replace
+     * @param data new contents
+     * @throws IOException if writing fails
+     */
+    void write(Path target, ByteBuffer... data) throws IOException {
+        this.stage(target, data);
+        this.commit();
+    }
+
+    /**
+     * Syncs all staged files, then moves each over its target and syncs the affected directories.
+     *
+     * @throws IOException if any file fails, files already moved stay in place
+     */
+    void commit() throws IOException {
+        if (this.staged.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Path, Path>> batch = new ArrayList<>(this.staged.entrySet());
+        this.staged.clear();
+
+        for (Map.Entry<Path, Path> entry : batch) {
+            try (FileChannel channel = FileChannel.open(entry.getValue(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Map.Entry<Path, Path> entry : batch) {
+            Files.move(entry.getValue(), entry.getKey(), StandardCopyOption.ATOMIC_MOVE);
+            directories.add(entry.getKey().getParent());
+        }
+
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+    }
+
+    // Makes the renames themselves durable. Not possible on every platform, where it's skipped.
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps the last few generations of each holder's vaults in a content-addressed store. Every vault is stored once
+ * as a chunk named by the SHA-256 of its {@link VaultFileFormat} encoding, so vaults unchanged between generations,
+ * or identical across holders, share a chunk.
+ * <pre>
+ * chunks/&lt;first two hex digits&gt;/&lt;hash&gt;
+ * generations/&lt;holder&gt;/&lt;time in millis&gt;   one "&lt;number&gt; &lt;hash&gt;" line per vault
+ * </pre>
+ * Chunks no generation refers to anymore are removed by {@link #sweep()}.
+ */
+public class BackupStore {
+    private final Path chunks;
+    private final Path generations;
+    private final int keep;
+    private final AtomicWriter writer = new AtomicWriter();
+    // Generations dropped before a restart leave chunks behind that nothing here knows about.
+    private boolean sweepNeeded = true;
+
+    /**
+     * Creates a new store.
+     *
+     * @param directory folder to keep backups in
+     * @param keep generations kept per holder
+     */
+    public BackupStore(Path directory, int keep) {
+        this.chunks = directory.resolve("chunks");
+        this.generations = directory.resolve("generations");
+        this.keep = Math.max(1, keep);
+    }
+
+    /**
+     * Backs up a holder's vaults as a new generation, unless they are the same as the latest one.
+     *
+     * @param holder holder
+     * @param vaults vault number - contents, all of the holder's vaults
+     * @return true if a generation was added
+     * @throws IOException if writing fails
+     */
+    public synchronized boolean backup(String holder, Map<Integer, ItemStack[]> vaults) throws IOException {
+        Map<Integer, String> manifest = new TreeMap<>();
+        for (Map.Entry<Integer, ItemStack[]> entry : vaults.entrySet()) {
+            byte[] data = VaultFileFormat.toBytes(entry.getValue());
+            String hash = hash(data);
+            Path chunk = this.getChunk(hash);
+            if (!Files.exists(chunk)) {
+                this.writer.stage(chunk, ByteBuffer.wrap(data));
+            }
+            manifest.put(entry.getKey(), hash);
+        }
+
+        List<Long> existing = this.getGenerations(holder);
+        if (!existing.isEmpty() && manifest.equals(this.readManifest(holder, existing.get(0)))) {
+            this.writer.commit();
+            return false;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        manifest.forEach((number, hash) -> builder.append(number).append(' ').append(hash).append('\n'));
+        long generation = Math.max(System.currentTimeMillis(), existing.isEmpty() ? 0 : existing.get(0) + 1);
+        // Chunks are committed along with the manifest, so a manifest never refers to a missing chunk.
+        this.writer.stage(this.generations.resolve(holder).resolve(Long.toString(generation)), ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8)));
+        this.writer.commit();
+
+        for (int i = this.keep - 1; i < existing.size(); i++) {
+            Files.deleteIfExists(this.generations.resolve(holder).resolve(Long.toString(existing.get(i))));
+            this.sweepNeeded = true;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the generations kept for a holder.
+     *
+     * @param holder holder
+     * @return generation times in millis, newest first
+     * @throws IOException if listing fails
+     */
+    public synchronized List<Long> getGenerations(String holder) throws IOException {
+        List<Long> list = new ArrayList<>();
+        Path folder = this.generations.resolve(holder);
+        if (!Files.isDirectory(folder)) {
+            return list;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                try {
+                    list.add(Long.parseLong(path.getFileName().toString()));
+                } catch (NumberFormatException ignored) {
+                    // Left over temp file
+                }
+            }
+        }
+        list.sort((a, b) -> Long.compare(b, a));
+        return list;
+    }
+
+    /**
+     * Reads back a generation.
+     *
+     * @param holder holder
+     * @param generation generation time in millis
+     * @return vault number - contents
+     * @throws IOException if the generation or one of its chunks can't be read
+     */
+    public synchronized Map<Integer, ItemStack[]> restore(String holder, long generation) throws IOException {
+        Map<Integer, ItemStack[]> vaults = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> entry : this.readManifest(holder, generation).entrySet()) {
+            byte[] data = Files.readAllBytes(this.getChunk(entry.getValue()));
+            if (!hash(data).equals(entry.getValue())) {
+                throw new IOException("Backup chunk " + entry.getValue() + " is corrupt");
+            }
+            ItemStack[] contents = VaultFileFormat.decode(ByteBuffer.wrap(data), holder);
+            if (contents == null) {
+                throw new IOException("Backup chunk " + entry.getValue() + " is unreadable");
+            }
+            vaults.put(entry.getKey(), contents);
+        }
+        return vaults;
+    }
+
+    /**
+     * Removes chunks no generation refers to anymore. The first sweep after creating the store always runs, after
+     * that it does nothing unless a generation was dropped since the last sweep.
+     *
+     * @return number of chunks removed
+     * @throws IOException if listing fails
+     */
+    public synchronized int sweep() throws IOException {
+        if (!this.sweepNeeded) {
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>();
+        if (Files.isDirectory(this.generations)) {
+            try (DirectoryStream<Path> holders = Files.newDirectoryStream(this.generations)) {
+                for (Path folder : holders) {
+                    String holder = folder.getFileName().toString();
+                    for (long generation : this.getGenerations(holder)) {
+                        referenced.addAll(this.readManifest(holder, generation).values());
+                    }
+                }
+            }
+        }
+
+        int removed = 0;
+        if (Files.isDirectory(this.chunks)) {
+            try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(this.chunks)) {
+                for (Path prefix : prefixes) {
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(prefix)) {
+                        for (Path chunk : stream) {
+                            if (!referenced.contains(chunk.getFileName().toString()) && Files.deleteIfExists(chunk)) {
+                                removed++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        this.sweepNeeded = false;
+        return removed;
+    }
+
+    private Map<Integer, String> readManifest(String holder, long generation) throws IOException {
+        Map<Integer, String> manifest = new TreeMap<>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(this.generations.resolve(holder).resolve(Long.toString(generation)), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new IOException("No backup " + generation + " for " + holder, e);
+        }
+        for (String line : lines) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                manifest.put(Integer.parseInt(line.substring(0, space)), line.substring(space + 1));
+            }
+        }
+        return manifest;
+    }
+
+    private Path getChunk(String hash) {
+        return this.chunks.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
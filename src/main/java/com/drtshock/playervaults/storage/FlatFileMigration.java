@@ -0,0 +1,269 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Moves vaults out of flatfile YAML files into another storage, one holder at a time. The payloads are handed over
+ * as they are, just without the Base64 wrapping, so no items are touched. Migrated files are moved to
+ * <code>newvaults/migrated/</code>. Files that fail to migrate are left in place and tried again after a while,
+ * meanwhile their vaults are read from the YAML, see {@link #getUnmigrated(String)}.
+ */
+class FlatFileMigration {
+    private static final long RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Takes the vaults of one holder. Vaults already in the target storage were saved after an earlier failed
+     * attempt, so are newer and should be kept.
+     */
+    interface Importer {
+        void accept(String holder, Map<Integer, byte[]> vaults) throws Exception;
+    }
+
+    /**
+     * A holder whose migration failed.
+     *
+     * @param retryAt when to try again
+     * @param vaults payloads read from the YAML, or null if it couldn't be read
+     * @param cause why it failed
+     */
+    private record Failure(long retryAt, Map<Integer, byte[]> vaults, Exception cause) {
+    }
+
+    private final Path directory;
+    private final Path migrated;
+    private final String target;
+    private final Importer importer;
+    // Holders known to not have a YAML file left to migrate.
+    private final Set<String> checked = ConcurrentHashMap.newKeySet();
+    // Holders whose YAML file failed to migrate, until it does.
+    private final Map<String, Failure> failed = new ConcurrentHashMap<>();
+    // Migrations of the same holder are serialized, others run in parallel unless they share a stripe.
+    private final Object[] locks = new Object[64];
+
+    /**
+     * Creates a new migration.
+     *
+     * @param directory folder holding the YAML files
+     * @param target name of the target storage, for logging
+     * @param importer takes the vaults
+     */
+    FlatFileMigration(Path directory, String target, Importer importer) {
+        this.directory = directory;
+        this.migrated = directory.resolve("migrated");
+        this.target = target;
+        this.importer = importer;
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Migrates every holder still stored in YAML. Should only be run asynchronously.
+     */
+    void migrateAll() {
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*.yml")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (this.migrate(name.substring(0, name.length() - ".yml".length()))) {
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to migrate vault files", e);
+        }
+        if (count > 0) {
+            PlayerVaults.getInstance().getLogger().info("Migrated " + count + " vault files to " + this.target + " storage in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * Migrates a holder if they are still stored in YAML. A holder that failed to is only tried again once
+     * {@link #RETRY_MILLIS} have passed, and the failure is only logged the first time.
+     *
+     * @param holder holder
+     * @return true if a file was migrated
+     */
+    boolean migrate(String holder) {
+        if (this.checked.contains(holder)) {
+            return false;
+        }
+        Failure failure = this.failed.get(holder);
+        if (failure != null && System.currentTimeMillis() < failure.retryAt()) {
+            return false;
+        }
+        synchronized (this.locks[Math.floorMod(holder.hashCode(), this.locks.length)]) {
+            if (this.checked.contains(holder)) {
+                return false;
+            }
+            failure = this.failed.get(holder);
+            if (failure != null && System.currentTimeMillis() < failure.retryAt()) {
+                return false;
+            }
+            Path yml = this.directory.resolve(holder + ".yml");
+            if (!Files.exists(yml)) {
+                this.failed.remove(holder);
+                this.checked.add(holder);
+                return false;
+            }
+            Map<Integer, byte[]> vaults = null;
+            try {
+                // Not loadConfiguration, which would hand a corrupt file over as empty.
+                YamlConfiguration yaml = new YamlConfiguration();
+                yaml.load(yml.toFile());
+                Map<Integer, byte[]> parsed = new HashMap<>();
+                for (String key : yaml.getKeys(false)) {
+                    if (!key.startsWith("vault")) {
+                        continue;
+                    }
+                    int number;
+                    try {
+                        // vault%
+                        number = Integer.parseInt(key.substring(5));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    String data = yaml.getString(key);
+                    if (data == null || data.isEmpty()) {
+                        continue;
+                    }
+                    parsed.put(number, Base64.getMimeDecoder().decode(data));
+                }
+                // Only once all of it is read, so a failure halfway doesn't pass part of it off as everything.
+                vaults = parsed;
+                this.importer.accept(holder, vaults);
+                Files.createDirectories(this.migrated);
+                Files.move(yml, this.migrated.resolve(holder + ".yml"), StandardCopyOption.REPLACE_EXISTING);
+                this.failed.remove(holder);
+                this.checked.add(holder);
+                PlayerVaults.debug("Migrated vault file for " + holder);
+                return true;
+            } catch (Exception e) {
+                // Leave the YAML in place so nothing is lost, we'll try again later.
+                if (this.failed.put(holder, new Failure(System.currentTimeMillis() + RETRY_MILLIS, vaults, e)) == null) {
+                    PlayerVaults.getInstance().addException(new IllegalStateException("Failed to migrate vault file for " + holder, e));
+                    PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to migrate vault file for " + holder + ", " + (vaults == null ? "its vaults can't be read" : "reading its vaults from it") + " until it does. Retrying every " + TimeUnit.MILLISECONDS.toMinutes(RETRY_MILLIS) + " minutes", e);
+                } else {
+                    PlayerVaults.debug("Still failed to migrate vault file for " + holder + ": " + e);
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Migrates a holder if they are still stored in YAML, then gets the vaults that are still only in their YAML
+     * file because that failed. Vaults the target storage has are newer than these.
+     *
+     * @param holder holder
+     * @return payloads by vault number, empty if there's nothing left to migrate, or null if the YAML file couldn't
+     *     be read
+     */
+    Map<Integer, byte[]> getUnmigrated(String holder) {
+        this.migrate(holder);
+        Failure failure = this.failed.get(holder);
+        if (failure == null) {
+            return Collections.emptyMap();
+        }
+        return failure.vaults() == null ? null : Collections.unmodifiableMap(failure.vaults());
+    }
+
+    /**
+     * Removes a vault from a holder's YAML file that failed to migrate, so it doesn't come back once it does.
+     *
+     * @param holder holder
+     * @param number vault number
+     * @throws IOException if the YAML file can't be rewritten
+     */
+    void delete(String holder, int number) throws IOException {
+        this.migrate(holder);
+        synchronized (this.locks[Math.floorMod(holder.hashCode(), this.locks.length)]) {
+            Failure failure = this.failed.get(holder);
+            if (failure == null) {
+                return;
+            }
+            if (failure.vaults() == null) {
+                PlayerVaults.getInstance().getLogger().warning("Deleted vault " + number + " of " + holder + " may come back from their unreadable vault file once it is fixed");
+                return;
+            }
+            if (!failure.vaults().containsKey(number)) {
+                return;
+            }
+            Path yml = this.directory.resolve(holder + ".yml");
+            YamlConfiguration yaml = new YamlConfiguration();
+            try {
+                yaml.load(yml.toFile());
+            } catch (InvalidConfigurationException e) {
+                throw new IOException("Failed to read vault file for " + holder, e);
+            }
+            yaml.set("vault" + number, null);
+            new AtomicWriter().write(yml, ByteBuffer.wrap(yaml.saveToString().getBytes(StandardCharsets.UTF_8)));
+            Map<Integer, byte[]> vaults = new HashMap<>(failure.vaults());
+            vaults.remove(number);
+            this.failed.put(holder, new Failure(failure.retryAt(), vaults, failure.cause()));
+        }
+    }
+
+    /**
+     * Moves a holder's YAML file that failed to migrate out of the way, for when all their vaults are deleted.
+     *
+     * @param holder holder
+     * @throws IOException if the file can't be moved
+     */
+    void deleteAll(String holder) throws IOException {
+        this.migrate(holder);
+        synchronized (this.locks[Math.floorMod(holder.hashCode(), this.locks.length)]) {
+            if (this.failed.get(holder) == null) {
+                return;
+            }
+            Path yml = this.directory.resolve(holder + ".yml");
+            if (Files.exists(yml)) {
+                // Kept like migrated files, it may hold something the admin wants back.
+                Files.createDirectories(this.migrated);
+                Files.move(yml, this.migrated.resolve(holder + ".yml"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            this.failed.remove(holder);
+            this.checked.add(holder);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import com.drtshock.playervaults.vaultmanagement.VaultKey;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * The original storage, one YAML file per holder with every vault as a Base64 string in it. Parsed files are kept
+ * in a bounded cache, weighed by their size on disk.
+ * <p>
+ * In lazy mode files are only indexed instead, see {@link VaultFileIndex}, and each vault is parsed the first time
+ * it is opened. Saving still parses the whole file, but that happens on the I/O thread.
+ */
+public class FlatFileStorage implements VaultStorage {
+
+    private final File directory;
+    private final WeightedLruCache<String, YamlConfiguration> cachedVaultFiles;
+    private final WeightedLruCache<String, VaultFileIndex> indexes;
+    private final boolean lazy;
+    private final AtomicWriter writer = new AtomicWriter();
+    // Holder - load of their file or index in progress, shared by everyone asking meanwhile.
+    private final SingleFlight<String, YamlConfiguration> fileLoads = new SingleFlight<>();
+    private final SingleFlight<String, VaultFileIndex> indexLoads = new SingleFlight<>();
+
+    public FlatFileStorage(File directory, int cacheMaxEntries, long cacheMaxBytes, boolean lazy) {
+        this.directory = directory;
+        this.cachedVaultFiles = new WeightedLruCache<>(lazy ? 0 : cacheMaxEntries, cacheMaxBytes);
+        this.indexes = new WeightedLruCache<>(lazy ? cacheMaxEntries : 0, cacheMaxBytes);
+        this.lazy = lazy;
+    }
+
+    @Override
+    public ItemStack[] load(String holder, int number) {
+        if (this.lazy) {
+            VaultFileIndex index = this.getIndex(holder);
+            if (index == null) {
+                return CardboardBoxSerialization.emptyInventory();
+            }
+            byte[] data;
+            try {
+                data = index.read(number);
+            } catch (Exception e) {
+                PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load vault " + number + " for " + holder, e));
+                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load vault " + number + " for " + holder, e);
+                return null;
+            }
+            // Decoded payload is now held by the index, so it weighs more.
+            this.indexes.replace(holder, index, index.getWeight());
+            return data == null ? CardboardBoxSerialization.emptyInventory() : CardboardBoxSerialization.readInventory(data, holder);
+        }
+        YamlConfiguration playerFile = getPlayerVaultFile(holder, true);
+        return CardboardBoxSerialization.fromStorage(playerFile.getString(VaultKey.storageKey(number)), holder);
+    }
+
+    @Override
+    public void save(String holder, Map<Integer, ItemStack[]> vaults) throws IOException {
+        YamlConfiguration yaml = getPlayerVaultFile(holder, false);
+        if (yaml == null) {
+            yaml = new YamlConfiguration();
+        }
+        for (Map.Entry<Integer, ItemStack[]> entry : vaults.entrySet()) {
+            yaml.set(VaultKey.storageKey(entry.getKey()), CardboardBoxSerialization.toStorage(entry.getValue(), holder));
+        }
+        stageFile(holder, yaml);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        this.writer.commit();
+    }
+
+    @Override
+    public void delete(String holder, int number) throws IOException {
+        File file = new File(directory, holder + ".yml");
+        if (!file.exists()) {
+            return;
+        }
+
+        YamlConfiguration playerFile = getPlayerVaultFile(holder, false);
+        if (playerFile == null) {
+            return;
+        }
+        playerFile.set(VaultKey.storageKey(number), null);
+        byte[] data = playerFile.saveToString().getBytes(StandardCharsets.UTF_8);
+        this.writer.write(file.toPath(), ByteBuffer.wrap(data));
+        cachedVaultFiles.replace(holder, playerFile, data.length);
+        if (this.indexes.contains(holder)) {
+            this.reindex(holder);
+        }
+    }
+
+    @Override
+    public void deleteAll(String holder) {
+        uncache(holder);
+        deletePlayerVaultFile(holder);
+    }
+
+    @Override
+    public boolean exists(String holder, int number) {
+        if (this.lazy) {
+            VaultFileIndex index = this.getIndex(holder);
+            return index != null && index.contains(number);
+        }
+        File file = new File(directory, holder + ".yml");
+        if (!file.exists()) {
+            return false;
+        }
+
+        return getPlayerVaultFile(holder, true).contains(VaultKey.storageKey(number));
+    }
+
+    @Override
+    public Set<Integer> getVaultNumbers(String holder) {
+        if (this.lazy) {
+            VaultFileIndex index = this.getIndex(holder);
+            return index == null ? new HashSet<>() : new HashSet<>(index.getVaultNumbers());
+        }
+        Set<Integer> vaults = new HashSet<>();
+        YamlConfiguration file = getPlayerVaultFile(holder, false);
+        if (file == null) {
+            return vaults;
+        }
+
+        for (String s : file.getKeys(false)) {
+            if (!s.startsWith("vault")) {
+                continue;
+            }
+            try {
+                // vault%
+                int number = Integer.parseInt(s.substring(5));
+                vaults.add(number);
+            } catch (NumberFormatException e) {
+                // silent
+            }
+        }
+
+        return vaults;
+    }
+
+    @Override
+    public void cache(String holder) {
+        if (this.lazy) {
+            this.getIndex(holder);
+        } else {
+            this.getPlayerVaultFile(holder, false);
+        }
+    }
+
+    @Override
+    public void uncache(String holder) {
+        cachedVaultFiles.remove(holder);
+        indexes.remove(holder);
+    }
+
+    @Override
+    public String getStatus() {
+        return this.lazy ? "Vault index cache: " + this.indexes : "Vault file cache: " + this.cachedVaultFiles;
+    }
+
+    private VaultFileIndex getIndex(String holder) {
+        VaultFileIndex index = this.indexes.get(holder);
+        if (index != null && index.isCurrent()) {
+            return index;
+        }
+        return this.indexLoads.load(holder, h -> {
+            // Another caller may have indexed it while this one waited.
+            VaultFileIndex current = this.indexes.get(h);
+            return current != null && current.isCurrent() ? current : this.reindex(h);
+        });
+    }
+
+    private VaultFileIndex reindex(String holder) {
+        VaultFileIndex index;
+        try {
+            index = VaultFileIndex.build(new File(this.directory, holder + ".yml").toPath());
+        } catch (IOException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to index vault file for: " + holder, e);
+            this.indexes.remove(holder);
+            return null;
+        }
+        if (index == null) {
+            this.indexes.remove(holder);
+        } else {
+            this.indexes.put(holder, index, index.getWeight());
+        }
+        return index;
+    }
+
+    /**
+     * Get the holder's vault file, from the cache if possible. Create if doesn't exist. Concurrent calls for the
+     * same holder share a single parse of the file.
+     *
+     * @param holder The vault holder.
+     * @return The holder's vault config file.
+     */
+    public YamlConfiguration getPlayerVaultFile(String holder, boolean createIfNotFound) {
+        YamlConfiguration cached = cachedVaultFiles.get(holder);
+        if (cached != null) {
+            return cached;
+        }
+        YamlConfiguration loaded = this.loadShared(holder, createIfNotFound);
+        if (loaded == null && createIfNotFound) {
+            // Joined a load that wasn't allowed to create the file.
+            loaded = this.loadShared(holder, true);
+        }
+        return loaded;
+    }
+
+    private YamlConfiguration loadShared(String holder, boolean createIfNotFound) {
+        return this.fileLoads.load(holder, h -> {
+            // Another caller may have loaded it while this one waited.
+            YamlConfiguration current = cachedVaultFiles.get(h);
+            if (current != null) {
+                return current;
+            }
+            YamlConfiguration file = loadPlayerVaultFile(h, createIfNotFound);
+            if (file != null) {
+                cachedVaultFiles.put(h, file, new File(this.directory, h + ".yml").length());
+            }
+            return file;
+        });
+    }
+
+    /**
+     * Attempt to delete a vault file.
+     *
+     * @param holder UUID of the holder.
+     */
+    public void deletePlayerVaultFile(String holder) {
+        File file = new File(this.directory, holder + ".yml");
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    public YamlConfiguration loadPlayerVaultFile(String uniqueId, boolean createIfNotFound) {
+        if (!this.directory.exists()) {
+            this.directory.mkdir();
+        }
+
+        File file = new File(this.directory, uniqueId + ".yml");
+        if (!file.exists()) {
+            if (createIfNotFound) {
+                try {
+                    file.createNewFile();
+                } catch (IOException e) {
+                    PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to create vault file for: " + uniqueId, e);
+                }
+            } else {
+                return null;
+            }
+        }
+
+        return YamlConfiguration.loadConfiguration(file);
+    }
+
+    // Put in place on the next commit. Until then the queue still answers reads for these vaults.
+    private void stageFile(String holder, YamlConfiguration yaml) throws IOException {
+        byte[] data = yaml.saveToString().getBytes(StandardCharsets.UTF_8);
+        this.writer.stage(new File(directory, holder + ".yml").toPath(), ByteBuffer.wrap(data));
+        cachedVaultFiles.replace(holder, yaml, data.length);
+        // Rebuilt from the new file when next needed.
+        this.indexes.remove(holder);
+        PlayerVaults.debug("Saved vault for " + holder);
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Puts an append-only journal in front of another storage. Saves and deletes are appended as records to the current
+ * journal segment, so each batch costs one sequential append and one sync instead of rewriting files. A compactor
+ * thread regularly folds everything journaled into the wrapped storage and drops the folded segments. Until then
+ * reads are answered from the segments themselves: they are memory-mapped, and an in-memory index points each
+ * journaled vault at its latest payload, so no payload is kept on the heap.
+ * <pre>
+ * segment: journal/&lt;first sequence&gt;.log
+ * record:
+ *   int    body length
+ *   int    CRC32 of the body
+ *   byte   type (0 save, 1 delete, 2 delete all of the holder's vaults)
+ *   long   sequence
+ *   short  holder length
+ *   byte[] holder, UTF-8
+ *   int    vault number, unused for delete all
+ *   int    payload length
+ *   byte[] {@link VaultFileFormat} payload, saves only
+ * </pre>
+ * Segments left over from a crash are replayed on startup. A torn record at the end of the last segment is cut off.
+ * Each compaction records the sequence everything before has been folded up to in <code>journal/compacted</code>, so
+ * a segment that couldn't be deleted afterwards isn't replayed over newer data.
+ * The compactor is the only thread writing to the wrapped storage, and holds each holder's write lock while folding
+ * them, so readers of the wrapped storage never see a holder half written.
+ */
+public class JournalStorage implements VaultStorage {
+    private static final String EXTENSION = ".log";
+    private static final String WATERMARK = "compacted";
+    private static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    private static final byte SAVE = 0;
+    private static final byte DELETE = 1;
+    private static final byte DELETE_ALL = 2;
+    // Key of a holder's delete all entry. Their other entries are all newer, older ones are dropped with it.
+    private static final int ALL = Integer.MIN_VALUE;
+
+    /**
+     * Latest journaled state of a vault.
+     *
+     * @param sequence sequence of the record
+     * @param segment segment holding the record
+     * @param offset offset of the payload in the segment
+     * @param length length of the payload, or -1 if the vault was deleted
+     */
+    private record Entry(long sequence, MappedSegment segment, int offset, int length) {
+        boolean deleted() {
+            return this.length < 0;
+        }
+
+        ItemStack[] read(String holder) throws IOException {
+            return VaultFileFormat.decode(this.segment.read(this.offset, this.length), holder);
+        }
+    }
+
+    private final VaultStorage primary;
+    private final Path directory;
+    private final Function<String, Lock> holderLock;
+    // Holder - (vault number - latest entry). Only vaults journaled since the last compaction.
+    private final Map<String, Map<Integer, Entry>> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PlayerVaultsX Journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object lock = new Object();
+    private FileChannel segment;
+    private MappedSegment current;
+    private long segmentSize;
+    private long sequence;
+    // Segments no longer appended to, oldest first.
+    private final List<MappedSegment> sealed = new ArrayList<>();
+
+    /**
+     * Opens the journal, replaying anything left in it.
+     *
+     * @param primary storage to compact into
+     * @param directory folder holding the segments
+     * @param compactSeconds seconds between compactions
+     * @param holderLock gets the lock ordering writes to a holder's vaults against reads of them
+     * @throws IOException if the journal can't be read or opened
+     */
+    public JournalStorage(VaultStorage primary, Path directory, int compactSeconds, Function<String, Lock> holderLock) throws IOException {
+        this.primary = primary;
+        this.directory = directory;
+        this.holderLock = holderLock;
+        Files.createDirectories(directory);
+        this.replay();
+        this.roll();
+        long period = Math.max(1, compactSeconds);
+        this.compactor.scheduleWithFixedDelay(this::compact, period, period, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public ItemStack[] load(String holder, int number) {
+        Entry entry = this.getEntry(holder, number);
+        if (entry == null) {
+            return this.isDeletedAll(holder) ? CardboardBoxSerialization.emptyInventory() : this.primary.load(holder, number);
+        }
+        if (entry.deleted()) {
+            return CardboardBoxSerialization.emptyInventory();
+        }
+        try {
+            return entry.read(holder);
+        } catch (IOException e) {
+            if (this.getEntry(holder, number) != entry) {
+                // Compacted, and its segment dropped, while we were reading.
+                return this.load(holder, number);
+            }
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to read journaled vault " + number + " for " + holder, e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to read journaled vault " + number + " for " + holder, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String holder, Map<Integer, ItemStack[]> vaults) throws IOException {
+        for (Map.Entry<Integer, ItemStack[]> vault : vaults.entrySet()) {
+            this.append(SAVE, holder, vault.getKey(), VaultFileFormat.toBytes(vault.getValue()));
+        }
+        PlayerVaults.debug("Journaled vault for " + holder);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        synchronized (this.lock) {
+            // Appends only need the data and file size synced, not the other metadata.
+            this.segment.force(false);
+        }
+    }
+
+    @Override
+    public void delete(String holder, int number) throws IOException {
+        this.append(DELETE, holder, number, null);
+        this.commit();
+    }
+
+    @Override
+    public void deleteAll(String holder) throws IOException {
+        // One record, compacted into deleteAll on the wrapped storage so its files go too.
+        this.append(DELETE_ALL, holder, ALL, null);
+        this.commit();
+    }
+
+    @Override
+    public boolean exists(String holder, int number) {
+        Entry entry = this.getEntry(holder, number);
+        if (entry == null) {
+            return !this.isDeletedAll(holder) && this.primary.exists(holder, number);
+        }
+        return !entry.deleted();
+    }
+
+    @Override
+    public Set<Integer> getVaultNumbers(String holder) {
+        Map<Integer, Entry> vaults = this.entries.get(holder);
+        Set<Integer> numbers = vaults != null && vaults.containsKey(ALL) ? new HashSet<>() : new HashSet<>(this.primary.getVaultNumbers(holder));
+        if (vaults != null) {
+            vaults.forEach((number, entry) -> {
+                if (number == ALL) {
+                    return;
+                }
+                if (entry.deleted()) {
+                    numbers.remove(number);
+                } else {
+                    numbers.add(number);
+                }
+            });
+        }
+        return numbers;
+    }
+
+    @Override
+    public void cache(String holder) {
+        this.primary.cache(holder);
+    }
+
+    @Override
+    public void uncache(String holder) {
+        this.primary.uncache(holder);
+    }
+
+    @Override
+    public String getStatus() {
+        int vaults = 0;
+        for (Map<Integer, Entry> holder : this.entries.values()) {
+            vaults += holder.size();
+        }
+        int segments;
+        synchronized (this.lock) {
+            segments = this.sealed.size() + 1;
+        }
+        String status = "Journal: " + segments + " segments, " + vaults + " vaults not yet compacted";
+        String primaryStatus = this.primary.getStatus();
+        return primaryStatus == null ? status : status + "\n" + primaryStatus;
+    }
+
+    /**
+     * Stops the compactor, folds everything left into the wrapped storage and closes it.
+     */
+    @Override
+    public void close() {
+        this.compactor.shutdown();
+        try {
+            this.compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.compact();
+        synchronized (this.lock) {
+            try {
+                this.segment.close();
+            } catch (IOException ignored) {
+            }
+            this.current.close();
+            this.sealed.forEach(MappedSegment::close);
+        }
+        this.primary.close();
+    }
+
+    private Entry getEntry(String holder, int number) {
+        Map<Integer, Entry> vaults = this.entries.get(holder);
+        return vaults == null ? null : vaults.get(number);
+    }
+
+    // True if all of the holder's vaults were deleted since the last compaction, and not saved again.
+    private boolean isDeletedAll(String holder) {
+        return this.getEntry(holder, ALL) != null;
+    }
+
+    private void put(String holder, int number, Entry entry) {
+        // compute() so a concurrent compaction can't drop the holder's map while we add to it.
+        this.entries.compute(holder, (key, vaults) -> {
+            if (vaults == null || number == ALL) {
+                // Records are put in sequence order, so a delete all overrides everything journaled before it.
+                vaults = new ConcurrentHashMap<>();
+            }
+            vaults.merge(number, entry, (old, now) -> now.sequence > old.sequence ? now : old);
+            return vaults;
+        });
+    }
+
+    private void append(byte type, String holder, int number, byte[] payload) throws IOException {
+        byte[] name = holder.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = payload == null ? 0 : payload.length;
+        int bodyLength = 1 + 8 + 2 + name.length + 4 + 4 + payloadLength;
+        synchronized (this.lock) {
+            if (this.segmentSize >= SEGMENT_SIZE) {
+                this.roll();
+            }
+            long sequence = this.sequence++;
+            ByteBuffer body = ByteBuffer.allocate(bodyLength)
+                    .put(type)
+                    .putLong(sequence)
+                    .putShort((short) name.length)
+                    .put(name)
+                    .putInt(number)
+                    .putInt(payloadLength);
+            if (payload != null) {
+                body.put(payload);
+            }
+            body.flip();
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(bodyLength).putInt((int) crc.getValue());
+            header.flip();
+            VaultFileFormat.writeFully(this.segment, header, body);
+            int offset = (int) this.segmentSize + RECORD_HEADER_SIZE + bodyLength - payloadLength;
+            this.segmentSize += RECORD_HEADER_SIZE + bodyLength;
+            this.put(holder, number, new Entry(sequence, this.current, offset, payload == null ? -1 : payloadLength));
+        }
+    }
+
+    // Seals the current segment and starts a new one. An empty segment is kept, there's nothing to seal.
+    private void roll() throws IOException {
+        synchronized (this.lock) {
+            if (this.segment != null) {
+                if (this.segmentSize == 0) {
+                    return;
+                }
+                this.segment.force(false);
+                this.segment.close();
+                this.sealed.add(this.current);
+            }
+            Path path = this.directory.resolve(String.format("%020d", this.sequence) + EXTENSION);
+            this.segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.current = new MappedSegment(path);
+            this.segmentSize = 0;
+            AtomicWriter.syncDirectory(this.directory);
+        }
+    }
+
+    private void replay() throws IOException {
+        Path watermarkFile = this.directory.resolve(WATERMARK);
+        long watermark = 0;
+        if (Files.exists(watermarkFile)) {
+            watermark = ByteBuffer.wrap(Files.readAllBytes(watermarkFile)).getLong();
+        }
+        // Never hand out a sequence replay would skip, even if every segment is gone.
+        this.sequence = watermark;
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + EXTENSION)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        int records = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            MappedSegment segment = new MappedSegment(segments.get(i));
+            records += this.replay(segment, i == segments.size() - 1, watermark);
+            if (Files.size(segment.getPath()) == 0) {
+                // Nothing in it, and its name may clash with the next segment.
+                segment.close();
+                Files.delete(segment.getPath());
+            } else {
+                this.sealed.add(segment);
+            }
+        }
+        if (records > 0) {
+            PlayerVaults.getInstance().getLogger().info("Replayed " + records + " journaled vault changes from " + segments.size() + " segments");
+        }
+    }
+
+    private int replay(MappedSegment segment, boolean last, long watermark) throws IOException {
+        Path path = segment.getPath();
+        ByteBuffer buffer = segment.map();
+        int records = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            ByteBuffer body = buffer.slice(buffer.position(), length);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+
+            byte type = body.get();
+            long sequence = body.getLong();
+            byte[] name = new byte[body.getShort()];
+            body.get(name);
+            int number = body.getInt();
+            int payloadLength = body.getInt();
+            int offset = start + RECORD_HEADER_SIZE + body.position();
+            this.sequence = Math.max(this.sequence, sequence + 1);
+            if (sequence < watermark) {
+                // Already compacted, the segment just couldn't be deleted. It's dropped on the next compaction.
+                continue;
+            }
+            this.put(new String(name, StandardCharsets.UTF_8), type == DELETE_ALL ? ALL : number, new Entry(sequence, segment, offset, type == SAVE ? payloadLength : -1));
+            records++;
+        }
+
+        if (buffer.hasRemaining()) {
+            if (last) {
+                // Torn write from a crash, the batch it belonged to was never acknowledged as durable.
+                PlayerVaults.getInstance().getLogger().warning("Cutting off " + buffer.remaining() + " bytes of incomplete journal in " + path.getFileName());
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(buffer.position());
+                }
+                segment.invalidate();
+            } else {
+                PlayerVaults.getInstance().getLogger().severe("Journal segment " + path.getFileName() + " is corrupt after " + records + " records, skipping the rest of it");
+            }
+        }
+        return records;
+    }
+
+    // Called on the compactor thread, or once more on close.
+    private void compact() {
+        List<MappedSegment> segments;
+        long watermark;
+        try {
+            synchronized (this.lock) {
+                if (this.entries.isEmpty() && this.sealed.isEmpty()) {
+                    return;
+                }
+                // Everything in the sealed segments is either in the snapshot below or overwritten by a later record.
+                this.roll();
+                segments = new ArrayList<>(this.sealed);
+                // Every record before this one is in a sealed segment.
+                watermark = this.sequence;
+            }
+        } catch (IOException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to start a new journal segment", e);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, Map<Integer, Entry>> snapshot = new HashMap<>();
+        this.entries.forEach((holder, vaults) -> snapshot.put(holder, new HashMap<>(vaults)));
+        int folded = 0;
+        try {
+            for (Map.Entry<String, Map<Integer, Entry>> holder : snapshot.entrySet()) {
+                this.fold(holder.getKey(), holder.getValue());
+                folded += holder.getValue().size();
+            }
+            // Not under holder locks, like the I/O thread's commit: reads of the journaled vaults are still answered
+            // from the journal until the entries are dropped below.
+            this.primary.commit();
+        } catch (Exception e) {
+            // Keep the segments, everything is folded again next time.
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to compact vault journal", e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to compact vault journal", e);
+            return;
+        }
+
+        // Entries journaled again since the snapshot are newer and stay.
+        snapshot.forEach((holder, vaults) -> this.entries.computeIfPresent(holder, (key, remaining) -> {
+            vaults.forEach(remaining::remove);
+            return remaining.isEmpty() ? null : remaining;
+        }));
+        try {
+            new AtomicWriter().write(this.directory.resolve(WATERMARK), ByteBuffer.allocate(Long.BYTES).putLong(0, watermark));
+        } catch (IOException e) {
+            // Only matters if a segment can't be deleted below.
+            PlayerVaults.getInstance().getLogger().log(Level.WARNING, "Failed to record journal compaction", e);
+        }
+        synchronized (this.lock) {
+            for (MappedSegment segment : segments) {
+                segment.close();
+                try {
+                    Files.deleteIfExists(segment.getPath());
+                    this.sealed.remove(segment);
+                } catch (IOException e) {
+                    PlayerVaults.getInstance().getLogger().log(Level.WARNING, "Failed to delete journal segment " + segment.getPath().getFileName(), e);
+                }
+            }
+        }
+        PlayerVaults.debug("Compacted " + folded + " journaled vaults from " + segments.size() + " segments", start);
+    }
+
+    // Called on the compactor thread
+    private void fold(String holder, Map<Integer, Entry> vaults) throws IOException {
+        Map<Integer, ItemStack[]> saves = new HashMap<>();
+        for (Map.Entry<Integer, Entry> vault : vaults.entrySet()) {
+            if (vault.getKey() == ALL || vault.getValue().deleted()) {
+                continue;
+            }
+            ItemStack[] contents = vault.getValue().read(holder);
+            if (contents == null) {
+                throw new IOException("Journaled vault " + vault.getKey() + " of " + holder + " is unreadable");
+            }
+            saves.put(vault.getKey(), contents);
+        }
+        Lock lock = this.holderLock.apply(holder);
+        lock.lock();
+        try {
+            // Anything else journaled for the holder came after the delete all.
+            if (vaults.containsKey(ALL)) {
+                this.primary.deleteAll(holder);
+            }
+            for (Map.Entry<Integer, Entry> vault : vaults.entrySet()) {
+                if (vault.getKey() != ALL && vault.getValue().deleted()) {
+                    this.primary.delete(holder, vault.getKey());
+                }
+            }
+            if (!saves.isEmpty()) {
+                this.primary.save(holder, saves);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When each holder's vaults were last opened or saved, kept across restarts so cleanup doesn't have to go by file
+ * times alone, and can skip reading the attributes of holders it knows are recent. Stored as one
+ * {@code holder<TAB>millis} line per holder. Times are only updated once a minute per holder, so recording access
+ * on every load and save stays cheap. Thread-safe.
+ */
+public class LastAccessIndex {
+    private static final long RESOLUTION = TimeUnit.MINUTES.toMillis(1);
+
+    private final Path file;
+    private final Map<String, Long> times = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * Creates an empty index, see {@link #load()}.
+     *
+     * @param file index file
+     */
+    public LastAccessIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the index file if it exists.
+     *
+     * @throws IOException if the file exists but can't be read
+     */
+    public void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                try {
+                    this.times.merge(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)), Math::max);
+                } catch (NumberFormatException ignored) {
+                    // Damaged line, the holder falls back to its file time.
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            // Nothing recorded yet.
+        }
+    }
+
+    /**
+     * Records that a holder's vaults were accessed now.
+     *
+     * @param holder holder
+     */
+    public void touch(String holder) {
+        long now = System.currentTimeMillis();
+        Long last = this.times.get(holder);
+        if (last == null || now - last >= RESOLUTION) {
+            this.times.put(holder, now);
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Gets when a holder's vaults were last accessed.
+     *
+     * @param holder holder
+     * @return time in millis, 0 if not recorded
+     */
+    public long get(String holder) {
+        Long time = this.times.get(holder);
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * Forgets a holder, for when their vaults are deleted.
+     *
+     * @param holder holder
+     */
+    public void remove(String holder) {
+        if (this.times.remove(holder) != null) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Gets all recorded holders.
+     *
+     * @return live view of the holders
+     */
+    public Set<String> getHolders() {
+        return Collections.unmodifiableSet(this.times.keySet());
+    }
+
+    /**
+     * Writes the index if anything changed since it was last written.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void save() throws IOException {
+        if (!this.dirty) {
+            return;
+        }
+        this.dirty = false;
+        StringBuilder builder = new StringBuilder(this.times.size() * 52);
+        for (Map.Entry<String, Long> entry : this.times.entrySet()) {
+            builder.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        try {
+            new AtomicWriter().write(this.file, ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            this.dirty = true;
+            throw e;
+        }
+    }
+}
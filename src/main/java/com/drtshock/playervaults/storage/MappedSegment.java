@@ -0,0 +1,108 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory mapping of a binary segment file. Reads are slices of the mapping, so they cost no heap copy and
+ * no system call once the pages are cached. The file may grow while mapped, the mapping is widened when a read
+ * goes past its end. Thread-safe.
+ */
+class MappedSegment {
+    private final Path path;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer map;
+
+    /**
+     * Opens a segment for reading.
+     *
+     * @param path segment file
+     * @throws IOException if the file can't be opened
+     */
+    MappedSegment(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Maps the whole file as it is now.
+     *
+     * @return a read-only view of the whole file, positioned at the start
+     * @throws IOException if mapping fails
+     */
+    ByteBuffer map() throws IOException {
+        synchronized (this) {
+            MappedByteBuffer map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+            this.map = map;
+            return map.duplicate();
+        }
+    }
+
+    /**
+     * Gets part of the file.
+     *
+     * @param offset start of the part
+     * @param length length of the part
+     * @return a read-only slice of the mapping
+     * @throws IOException if the part is past the end of the file, or mapping fails
+     */
+    ByteBuffer read(int offset, int length) throws IOException {
+        MappedByteBuffer map = this.map;
+        if (map == null || offset + length > map.capacity()) {
+            synchronized (this) {
+                map = this.map;
+                if (map == null || offset + length > map.capacity()) {
+                    if (offset + length > this.channel.size()) {
+                        throw new IOException("Read past the end of " + this.path.getFileName());
+                    }
+                    map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+                    this.map = map;
+                }
+            }
+        }
+        return map.slice(offset, length);
+    }
+
+    /**
+     * Drops the current mapping, for after the file was truncated.
+     */
+    void invalidate() {
+        this.map = null;
+    }
+
+    /**
+     * Closes the file. The mapping stays readable until it's garbage collected.
+     */
+    void close() {
+        try {
+            this.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Stores every vault in its own file, <code>newvaults/&lt;holder&gt;/&lt;number&gt;.pvx</code>, so saving one vault
+ * only costs as much as that vault. Files use the {@link VaultFileFormat} container. Holders still in the old one-YAML-per-holder layout are migrated the first time
+ * they are touched, and in bulk in the background via {@link #migrateAll()}.
+ */
+public class PerVaultFileStorage implements VaultStorage {
+
+    static final String EXTENSION = ".pvx";
+    private final Path directory;
+    private final FlatFileMigration migration;
+    private final AtomicWriter writer = new AtomicWriter();
+
+    public PerVaultFileStorage(File directory) {
+        this.directory = directory.toPath();
+        this.migration = new FlatFileMigration(this.directory, "per-vault", this::importVaults);
+    }
+
+    @Override
+    public ItemStack[] load(String holder, int number) {
+        Map<Integer, byte[]> unmigrated = this.migration.getUnmigrated(holder);
+        try (FileChannel channel = FileChannel.open(this.getFile(holder, number), StandardOpenOption.READ)) {
+            return VaultFileFormat.read(channel, holder);
+        } catch (NoSuchFileException e) {
+            if (unmigrated == null) {
+                // Their YAML file can't be read, already logged. Don't pass it off as empty.
+                return null;
+            }
+            byte[] data = unmigrated.get(number);
+            return data == null ? CardboardBoxSerialization.emptyInventory() : VaultFileFormat.decode(ByteBuffer.wrap(data), holder);
+        } catch (IOException e) {
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to read vault " + number + " for " + holder, e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to read vault " + number + " for " + holder, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String holder, Map<Integer, ItemStack[]> vaults) throws IOException {
+        this.migrate(holder);
+        for (Map.Entry<Integer, ItemStack[]> entry : vaults.entrySet()) {
+            this.writer.stage(this.getFile(holder, entry.getKey()), VaultFileFormat.encode(entry.getValue()));
+        }
+        PlayerVaults.debug("Saved vault for " + holder);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        this.writer.commit();
+    }
+
+    @Override
+    public void delete(String holder, int number) throws IOException {
+        this.migration.delete(holder, number);
+        Files.deleteIfExists(this.getFile(holder, number));
+    }
+
+    @Override
+    public void deleteAll(String holder) throws IOException {
+        this.migration.deleteAll(holder);
+        Path folder = this.getFolder(holder);
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(folder);
+    }
+
+    @Override
+    public boolean exists(String holder, int number) {
+        Map<Integer, byte[]> unmigrated = this.migration.getUnmigrated(holder);
+        return Files.exists(this.getFile(holder, number)) || unmigrated != null && unmigrated.containsKey(number);
+    }
+
+    @Override
+    public Set<Integer> getVaultNumbers(String holder) {
+        Map<Integer, byte[]> unmigrated = this.migration.getUnmigrated(holder);
+        Set<Integer> vaults = unmigrated == null ? new HashSet<>() : new HashSet<>(unmigrated.keySet());
+        Path folder = this.getFolder(holder);
+        if (!Files.isDirectory(folder)) {
+            return vaults;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    vaults.add(Integer.parseInt(name.substring(0, name.length() - EXTENSION.length())));
+                } catch (NumberFormatException e) {
+                    // silent
+                }
+            }
+        } catch (IOException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.WARNING, "Failed to list vaults for " + holder, e);
+        }
+        return vaults;
+    }
+
+    @Override
+    public void cache(String holder) {
+        // Nothing worth keeping around, but a join is a good moment to get migration out of the way.
+        this.migrate(holder);
+    }
+
+    /**
+     * Migrates every holder still stored in the old layout. Should only be run asynchronously.
+     */
+    public void migrateAll() {
+        this.migration.migrateAll();
+    }
+
+    private void migrate(String holder) {
+        this.migration.migrate(holder);
+    }
+
+    private void importVaults(String holder, Map<Integer, byte[]> vaults) throws IOException {
+        // Runs off the I/O thread, so gets its own writer.
+        AtomicWriter importer = new AtomicWriter();
+        for (Map.Entry<Integer, byte[]> entry : vaults.entrySet()) {
+            Path file = this.getFile(holder, entry.getKey());
+            if (Files.exists(file)) {
+                continue;
+            }
+            // The headerless payload is still readable and gets the container on its next save.
+            importer.stage(file, ByteBuffer.wrap(entry.getValue()));
+        }
+        importer.commit();
+    }
+
+    private Path getFolder(String holder) {
+        return this.directory.resolve(holder);
+    }
+
+    private Path getFile(String holder, int number) {
+        return this.getFolder(holder).resolve(number + EXTENSION);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+
+/**
+ * Stores vaults in an SQLite database, one row per vault with the {@link VaultFileFormat} container as a blob.
+ * Runs in WAL mode, so the single writer connection never blocks the pooled reader connections. Saves of a batch
+ * share one transaction, committed and synced once in {@link #commit()}. Uses the SQLite driver bundled with the
+ * server.
+ */
+public class SqliteStorage implements VaultStorage {
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS vaults (holder TEXT NOT NULL, number INTEGER NOT NULL, data BLOB NOT NULL, updated INTEGER NOT NULL, PRIMARY KEY (holder, number)) WITHOUT ROWID";
+    private static final String SELECT = "SELECT data FROM vaults WHERE holder = ? AND number = ?";
+    private static final String EXISTS = "SELECT 1 FROM vaults WHERE holder = ? AND number = ?";
+    private static final String NUMBERS = "SELECT number FROM vaults WHERE holder = ?";
+    private static final String UPSERT = "INSERT OR REPLACE INTO vaults (holder, number, data, updated) VALUES (?, ?, ?, ?)";
+    private static final String IMPORT = "INSERT OR IGNORE INTO vaults (holder, number, data, updated) VALUES (?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM vaults WHERE holder = ? AND number = ?";
+    private static final String DELETE_ALL = "DELETE FROM vaults WHERE holder = ?";
+
+    /**
+     * A connection and the statements prepared on it.
+     */
+    private static final class Handle {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private Handle(Connection connection) {
+            this.connection = connection;
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = this.statements.get(sql);
+            if (statement == null) {
+                statement = this.connection.prepareStatement(sql);
+                this.statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        private void close() {
+            try {
+                this.connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private interface Query<T> {
+        T run(Handle handle) throws SQLException;
+    }
+
+    private final Handle writer;
+    private final BlockingQueue<Handle> readers;
+    private final List<Handle> all = new ArrayList<>();
+    private final FlatFileMigration migration;
+    // Guarded by the writer. True while saves wait for commit().
+    private boolean batchOpen;
+    // Guarded by the writer. Set when saves waiting for commit() were rolled back.
+    private SQLException batchFailure;
+
+    /**
+     * Opens the database, creating it if needed.
+     *
+     * @param file database file
+     * @param vaultDirectory folder of flatfile vaults to migrate from
+     * @param readers number of pooled reader connections
+     * @throws SQLException if the database can't be opened
+     */
+    public SqliteStorage(File file, File vaultDirectory, int readers) throws SQLException {
+        String url = "jdbc:sqlite:" + file.getAbsolutePath();
+        this.writer = this.open(url);
+        try (Statement statement = this.writer.connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            // NORMAL doesn't sync the WAL on commit, a power loss could drop saves already reported as written.
+            statement.execute("PRAGMA synchronous=FULL");
+            statement.execute(CREATE);
+        }
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, readers));
+        for (int i = 0; i < Math.max(1, readers); i++) {
+            this.readers.add(this.open(url));
+        }
+        this.migration = new FlatFileMigration(vaultDirectory.toPath(), "SQLite", this::importVaults);
+    }
+
+    private Handle open(String url) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout=5000");
+        }
+        Handle handle = new Handle(connection);
+        this.all.add(handle);
+        return handle;
+    }
+
+    @Override
+    public ItemStack[] load(String holder, int number) {
+        Map<Integer, byte[]> unmigrated = this.migration.getUnmigrated(holder);
+        byte[] data;
+        try {
+            data = this.read(handle -> {
+                PreparedStatement statement = handle.prepare(SELECT);
+                statement.setString(1, holder);
+                statement.setInt(2, number);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getBytes(1) : null;
+                }
+            });
+        } catch (SQLException e) {
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to read vault " + number + " for " + holder, e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to read vault " + number + " for " + holder, e);
+            return null;
+        }
+        if (data == null) {
+            if (unmigrated == null) {
+                // Their YAML file can't be read, already logged. Don't pass it off as empty.
+                return null;
+            }
+            data = unmigrated.get(number);
+        }
+        return data == null ? CardboardBoxSerialization.emptyInventory() : VaultFileFormat.decode(ByteBuffer.wrap(data), holder);
+    }
+
+    @Override
+    public void save(String holder, Map<Integer, ItemStack[]> vaults) throws IOException {
+        this.migration.migrate(holder);
+        Map<Integer, byte[]> encoded = new HashMap<>();
+        for (Map.Entry<Integer, ItemStack[]> entry : vaults.entrySet()) {
+            encoded.put(entry.getKey(), VaultFileFormat.toBytes(entry.getValue()));
+        }
+        synchronized (this.writer) {
+            Connection connection = this.writer.connection;
+            try {
+                if (!this.batchOpen) {
+                    connection.setAutoCommit(false);
+                    this.batchOpen = true;
+                }
+                // A failed holder is undone on its own, the rest of the batch still commits.
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    this.write(this.writer, holder, encoded, UPSERT);
+                    connection.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    connection.rollback(savepoint);
+                    throw e;
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+        PlayerVaults.debug("Saved vault for " + holder);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        synchronized (this.writer) {
+            Connection connection = this.writer.connection;
+            SQLException failure = this.batchFailure;
+            this.batchFailure = null;
+            try {
+                if (failure != null) {
+                    if (this.batchOpen) {
+                        this.batchOpen = false;
+                        connection.rollback();
+                    }
+                    throw new IOException("Saves were rolled back", failure);
+                }
+                if (this.batchOpen) {
+                    this.commitWriter();
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            } finally {
+                this.resetAutoCommit();
+            }
+        }
+    }
+
+    private void importVaults(String holder, Map<Integer, byte[]> vaults) throws IOException {
+        // Legacy payloads are stored as they are, the container format still reads them.
+        this.transaction(handle -> {
+            this.write(handle, holder, vaults, IMPORT);
+            return null;
+        });
+    }
+
+    private void write(Handle handle, String holder, Map<Integer, byte[]> vaults, String sql) throws SQLException {
+        long now = System.currentTimeMillis();
+        PreparedStatement statement = handle.prepare(sql);
+        for (Map.Entry<Integer, byte[]> entry : vaults.entrySet()) {
+            statement.setString(1, holder);
+            statement.setInt(2, entry.getKey());
+            statement.setBytes(3, entry.getValue());
+            statement.setLong(4, now);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void delete(String holder, int number) throws IOException {
+        this.migration.delete(holder, number);
+        this.transaction(handle -> {
+            PreparedStatement statement = handle.prepare(DELETE);
+            statement.setString(1, holder);
+            statement.setInt(2, number);
+            statement.executeUpdate();
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteAll(String holder) throws IOException {
+        this.migration.deleteAll(holder);
+        this.transaction(handle -> {
+            PreparedStatement statement = handle.prepare(DELETE_ALL);
+            statement.setString(1, holder);
+            statement.executeUpdate();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean exists(String holder, int number) {
+        Map<Integer, byte[]> unmigrated = this.migration.getUnmigrated(holder);
+        if (unmigrated != null && unmigrated.containsKey(number)) {
+            return true;
+        }
+        try {
+            return this.read(handle -> {
+                PreparedStatement statement = handle.prepare(EXISTS);
+                statement.setString(1, holder);
+                statement.setInt(2, number);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next();
+                }
+            });
+        } catch (SQLException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to check vault " + number + " for " + holder, e);
+            return false;
+        }
+    }
+
+    @Override
+    public Set<Integer> getVaultNumbers(String holder) {
+        Map<Integer, byte[]> unmigrated = this.migration.getUnmigrated(holder);
+        try {
+            return this.read(handle -> {
+                PreparedStatement statement = handle.prepare(NUMBERS);
+                statement.setString(1, holder);
+                Set<Integer> vaults = unmigrated == null ? new HashSet<>() : new HashSet<>(unmigrated.keySet());
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        vaults.add(result.getInt(1));
+                    }
+                }
+                return vaults;
+            });
+        } catch (SQLException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.WARNING, "Failed to list vaults for " + holder, e);
+            return new HashSet<>();
+        }
+    }
+
+    @Override
+    public void cache(String holder) {
+        // Nothing worth keeping around, but a join is a good moment to get migration out of the way.
+        this.migration.migrate(holder);
+    }
+
+    /**
+     * Migrates every holder still stored in flatfile YAML. Should only be run asynchronously.
+     */
+    public void migrateAll() {
+        this.migration.migrateAll();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.writer) {
+            for (Handle handle : this.all) {
+                handle.close();
+            }
+        }
+    }
+
+    private <T> T read(Query<T> query) throws SQLException {
+        Handle handle;
+        try {
+            handle = this.readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+        try {
+            return query.run(handle);
+        } finally {
+            this.readers.add(handle);
+        }
+    }
+
+    private <T> T transaction(Query<T> query) throws IOException {
+        synchronized (this.writer) {
+            Connection connection = this.writer.connection;
+            boolean batch = this.batchOpen;
+            try {
+                Savepoint savepoint = batch ? connection.setSavepoint() : null;
+                if (!batch) {
+                    connection.setAutoCommit(false);
+                }
+                T result;
+                try {
+                    result = query.run(this.writer);
+                } catch (SQLException e) {
+                    // Leaves saves waiting for commit() alone.
+                    if (batch) {
+                        connection.rollback(savepoint);
+                    } else {
+                        connection.rollback();
+                    }
+                    throw e;
+                }
+                // Also commits saves waiting for commit(), which only makes them durable sooner.
+                this.commitWriter();
+                return result;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            } finally {
+                if (!this.batchOpen) {
+                    this.resetAutoCommit();
+                }
+            }
+        }
+    }
+
+    // Guarded by the writer
+    private void commitWriter() throws SQLException {
+        boolean batch = this.batchOpen;
+        this.batchOpen = false;
+        try {
+            this.writer.connection.commit();
+        } catch (SQLException e) {
+            try {
+                this.writer.connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            if (batch) {
+                // The saves were reported as written, so commit() has to fail for them to be retried.
+                this.batchFailure = e;
+            }
+            throw e;
+        }
+    }
+
+    // Guarded by the writer
+    private void resetAutoCommit() {
+        try {
+            this.writer.connection.setAutoCommit(true);
+        } catch (SQLException ignored) {
+        }
+    }
+}
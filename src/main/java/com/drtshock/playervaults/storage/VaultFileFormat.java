@@ -0,0 +1,199 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Binary container for a single vault.
+ * <pre>
+ * int    magic ("PVXF")
+ * byte   version
+ * int    slot count
+ * int    entry count
+ * int    CRC32 of everything after the header
+ * entry count times:
+ *   short  slot
+ *   int    length
+ *   byte[] CardboardBox item
+ * </pre>
+ * Empty slots have no entry. Files without the magic are the headerless payload from
+ * {@link CardboardBoxSerialization#writeInventory(ItemStack[])} and are still read.
+ */
+public class VaultFileFormat {
+    static final int MAGIC = 0x50565846;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 4 + 4 + 4;
+    private static final int ENTRY_HEADER_SIZE = 2 + 4;
+
+    /**
+     * Writes a vault to the channel's current position.
+     *
+     * @param channel channel to write to
+     * @param contents vault contents
+     * @throws IOException if writing fails
+     */
+    public static void write(FileChannel channel, ItemStack[] contents) throws IOException {
+        writeFully(channel, encode(contents));
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * Encodes a vault into a header and a body buffer, both ready to be written.
+     *
+     * @param contents vault contents
+     * @return header and body
+     */
+    public static ByteBuffer[] encode(ItemStack[] contents) {
+        byte[][] items = new byte[contents.length][];
+        int count = 0;
+        int bodySize = 0;
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack item = contents[slot];
+            if (item == null || item.getType() == Material.AIR) {
+                continue;
+            }
+            items[slot] = CardboardBoxSerialization.serializeItem(item);
+            bodySize += ENTRY_HEADER_SIZE + items[slot].length;
+            count++;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodySize);
+        for (int slot = 0; slot < items.length; slot++) {
+            if (items[slot] != null) {
+                body.putShort((short) slot).putInt(items[slot].length).put(items[slot]);
+            }
+        }
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put(VERSION)
+                .putInt(contents.length)
+                .putInt(count)
+                .putInt((int) crc.getValue());
+        header.flip();
+        return new ByteBuffer[]{header, body};
+    }
+
+    /**
+     * Encodes a vault into a single array.
+     *
+     * @param contents vault contents
+     * @return the encoded vault
+     */
+    static byte[] toBytes(ItemStack[] contents) {
+        ByteBuffer[] buffers = encode(contents);
+        ByteBuffer data = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+        data.put(buffers[0]).put(buffers[1]);
+        return data.array();
+    }
+
+    /**
+     * Reads a whole vault file.
+     *
+     * @param channel channel positioned at the start of the file
+     * @param holder holder, for error reporting
+     * @return the contents, or null if the file is unreadable
+     * @throws IOException if reading fails
+     */
+    public static ItemStack[] read(FileChannel channel, String holder) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Vault file of " + holder + " is too large: " + size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+        return decode(buffer, holder);
+    }
+
+    /**
+     * Decodes a vault from the buffer's remaining bytes.
+     *
+     * @param buffer vault file contents
+     * @param holder holder, for error reporting
+     * @return the contents, or null if the data is unreadable
+     */
+    public static ItemStack[] decode(ByteBuffer buffer, String holder) {
+        if (buffer.remaining() < 4 || buffer.getInt(buffer.position()) != MAGIC) {
+            // Written before the container existed, or migrated straight from YAML.
+            byte[] legacy = new byte[buffer.remaining()];
+            buffer.get(legacy);
+            return CardboardBoxSerialization.readInventory(legacy, holder);
+        }
+
+        try {
+            buffer.getInt();
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported vault file version " + version);
+            }
+            int slots = buffer.getInt();
+            int count = buffer.getInt();
+            int checksum = buffer.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            if (count < 0 || count > slots) {
+                throw new IOException("Invalid entry count " + count + " for " + slots + " slots");
+            }
+
+            int[] indexes = new int[count];
+            byte[][] items = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                indexes[i] = buffer.getShort() & 0xFFFF;
+                if (indexes[i] >= slots) {
+                    throw new IOException("Invalid slot " + indexes[i] + " for " + slots + " slots");
+                }
+                items[i] = new byte[buffer.getInt()];
+                buffer.get(items[i]);
+            }
+            return CardboardBoxSerialization.readSlots(slots, indexes, items, holder);
+        } catch (Exception e) {
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load items for " + holder, e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load items for " + holder, e);
+            return null;
+        }
+    }
+}
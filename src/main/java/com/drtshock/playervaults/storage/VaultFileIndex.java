@@ -0,0 +1,226 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.vaultmanagement.VaultKey;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of a flatfile vault file: which vaults it holds and where each one's YAML sits in the file. A vault is only
+ * parsed and Base64-decoded when it is first read, after which the decoded bytes are kept. Only reads are lazy,
+ * saving still parses and rewrites the whole file.
+ */
+class VaultFileIndex {
+    private record Slice(long offset, int length) {
+    }
+
+    private static final int SLICE_WEIGHT = 32;
+    private static final int BUFFER_SIZE = 8192;
+    // Enough of a line for "vault" followed by up to nine digits and a colon.
+    private static final int HEAD_SIZE = 16;
+    private final Path file;
+    private final long size;
+    private final long modified;
+    private final Map<Integer, Slice> slices;
+    private final Map<Integer, byte[]> decoded = new ConcurrentHashMap<>();
+
+    private VaultFileIndex(Path file, long size, long modified, Map<Integer, Slice> slices) {
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+        this.slices = slices;
+    }
+
+    /**
+     * Indexes a vault file without parsing it. The file is streamed through once, keeping only the start of each top
+     * level line, so indexing never holds the whole file in memory.
+     *
+     * @param file vault file
+     * @return the index, or null if the file doesn't exist
+     * @throws IOException if reading fails
+     */
+    static VaultFileIndex build(Path file) throws IOException {
+        long modified;
+        InputStream in;
+        try {
+            modified = Files.getLastModifiedTime(file).toMillis();
+            in = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        // Every top level key starts a line with something other than indentation or a comment, and its value
+        // runs until the next such line.
+        Map<Integer, Slice> slices = new HashMap<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] head = new byte[HEAD_SIZE];
+        int headLength = 0;
+        boolean lineStart = true;
+        boolean topLevel = false;
+        long offset = 0;
+        long start = -1;
+        int number = -1;
+        try (in) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++, offset++) {
+                    byte b = buffer[i];
+                    if (lineStart) {
+                        lineStart = false;
+                        topLevel = b != ' ' && b != '\t' && b != '#' && b != '\r' && b != '\n';
+                        if (topLevel) {
+                            if (number >= 0) {
+                                slices.put(number, new Slice(start, (int) (offset - start)));
+                            }
+                            start = offset;
+                            headLength = 0;
+                        }
+                    }
+                    if (b == '\n') {
+                        if (topLevel) {
+                            number = parseVaultNumber(head, headLength);
+                            topLevel = false;
+                        }
+                        lineStart = true;
+                    } else if (topLevel && headLength < head.length) {
+                        head[headLength++] = b;
+                    }
+                }
+            }
+        }
+        if (topLevel) {
+            number = parseVaultNumber(head, headLength);
+        }
+        if (number >= 0) {
+            slices.put(number, new Slice(start, (int) (offset - start)));
+        }
+        return new VaultFileIndex(file, offset, modified, slices);
+    }
+
+    // "vault<number>:" at the start of a line, or -1.
+    private static int parseVaultNumber(byte[] head, int length) {
+        int prefix = "vault".length();
+        if (length <= prefix || !new String(head, 0, prefix, StandardCharsets.US_ASCII).equals("vault")) {
+            return -1;
+        }
+        int number = 0;
+        int digits = 0;
+        for (int i = prefix; i < length; i++) {
+            byte b = head[i];
+            if (b >= '0' && b <= '9' && digits < 9) {
+                number = number * 10 + (b - '0');
+                digits++;
+            } else {
+                return b == ':' && digits > 0 ? number : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets if the file is unchanged since it was indexed.
+     *
+     * @return true if the index can still be used
+     */
+    boolean isCurrent() {
+        try {
+            return Files.size(this.file) == this.size && Files.getLastModifiedTime(this.file).toMillis() == this.modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    Set<Integer> getVaultNumbers() {
+        return Collections.unmodifiableSet(this.slices.keySet());
+    }
+
+    boolean contains(int number) {
+        return this.slices.containsKey(number);
+    }
+
+    /**
+     * Gets the decoded payload of a vault, reading only that vault's part of the file the first time.
+     *
+     * @param number vault number
+     * @return payload, or null if the vault isn't in the file or is empty
+     * @throws IOException if reading or parsing fails
+     */
+    byte[] read(int number) throws IOException {
+        byte[] cached = this.decoded.get(number);
+        if (cached != null) {
+            return cached;
+        }
+        Slice slice = this.slices.get(number);
+        if (slice == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(slice.length);
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, slice.offset + buffer.position()) < 0) {
+                    throw new IOException("Vault file " + this.file + " is shorter than indexed");
+                }
+            }
+        }
+        YamlConfiguration yaml = new YamlConfiguration();
+        try {
+            yaml.loadFromString(new String(buffer.array(), StandardCharsets.UTF_8));
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("Failed to parse vault " + number + " in " + this.file, e);
+        }
+        String data = yaml.getString(VaultKey.storageKey(number));
+        if (data == null || data.isEmpty()) {
+            return null;
+        }
+        byte[] bytes = Base64.getMimeDecoder().decode(data);
+        this.decoded.put(number, bytes);
+        return bytes;
+    }
+
+    /**
+     * Gets roughly how much memory this index holds on to.
+     *
+     * @return weight in bytes
+     */
+    long getWeight() {
+        long weight = (long) this.slices.size() * SLICE_WEIGHT;
+        for (byte[] bytes : this.decoded.values()) {
+            weight += bytes.length;
+        }
+        return weight;
+    }
+}
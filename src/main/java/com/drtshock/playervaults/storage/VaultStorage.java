@@ -0,0 +1,126 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents a place vault contents are persisted to. Writes are only ever issued from the vault I/O thread, reads
+ * may come from any thread.
+ */
+public interface VaultStorage {
+
+    /**
+     * Loads the contents of a vault.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     * @return the contents, an empty inventory if the vault doesn't exist or null if the stored data is unreadable
+     */
+    ItemStack[] load(String holder, int number);
+
+    /**
+     * Stores the contents of one or more vaults of a holder. Storage may hold off on making this durable, and
+     * visible to {@link #load(String, int)}, until the next {@link #commit()}.
+     *
+     * @param holder holder of the vaults
+     * @param vaults vault number - contents
+     * @throws IOException if writing fails
+     */
+    void save(String holder, Map<Integer, ItemStack[]> vaults) throws IOException;
+
+    /**
+     * Makes everything saved since the last commit durable. Called after each batch of saves, so storage can
+     * share one sync across many holders.
+     *
+     * @throws IOException if writing fails
+     */
+    default void commit() throws IOException {
+    }
+
+    /**
+     * Deletes a single vault.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     * @throws IOException if writing fails
+     */
+    void delete(String holder, int number) throws IOException;
+
+    /**
+     * Deletes all vaults of a holder.
+     *
+     * @param holder holder of the vaults
+     * @throws IOException if deleting fails
+     */
+    void deleteAll(String holder) throws IOException;
+
+    /**
+     * Checks if a vault exists.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     * @return true if the vault is stored
+     */
+    boolean exists(String holder, int number);
+
+    /**
+     * Gets the numbers of all stored vaults of a holder.
+     *
+     * @param holder holder of the vaults
+     * @return vault numbers, empty if none
+     */
+    Set<Integer> getVaultNumbers(String holder);
+
+    /**
+     * Hints that a holder's vaults are about to be used, for example because they joined. Should only be run
+     * asynchronously.
+     *
+     * @param holder holder of the vaults
+     */
+    default void cache(String holder) {
+    }
+
+    /**
+     * Hints that a holder's vaults are no longer needed in memory.
+     *
+     * @param holder holder of the vaults
+     */
+    default void uncache(String holder) {
+    }
+
+    /**
+     * Gets a short human readable status, such as cache statistics, for debug output.
+     *
+     * @return status, or null if there is nothing to report
+     */
+    default String getStatus() {
+        return null;
+    }
+
+    /**
+     * Releases any resources held. Called after all writes are done.
+     */
+    default void close() {
+    }
+}
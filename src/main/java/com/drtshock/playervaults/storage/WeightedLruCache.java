@@ -0,0 +1,161 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe LRU cache bounded by both entry count and total weight, where weight is whatever the caller says an
+ * entry costs, usually its size in bytes.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class WeightedLruCache<K, V> {
+    private record Entry<V>(V value, long weight) {
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries most entries kept
+     * @param maxWeight most total weight kept
+     */
+    public WeightedLruCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets a value, marking it as recently used.
+     *
+     * @param key key
+     * @return the value, or null if not cached
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = this.map.get(key);
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Gets if a key is cached, without counting as a use.
+     *
+     * @param key key
+     * @return true if cached
+     */
+    public synchronized boolean contains(K key) {
+        return this.map.containsKey(key);
+    }
+
+    /**
+     * Caches a value, evicting the least recently used entries while over either bound. A value heavier than the
+     * weight bound on its own is not cached.
+     *
+     * @param key key
+     * @param value value
+     * @param weight weight of the value
+     */
+    public synchronized void put(K key, V value, long weight) {
+        this.remove(key);
+        if (weight > this.maxWeight || this.maxEntries <= 0) {
+            return;
+        }
+        this.map.put(key, new Entry<>(value, weight));
+        this.weight += weight;
+        Iterator<Entry<V>> iterator = this.map.values().iterator();
+        while ((this.map.size() > this.maxEntries || this.weight > this.maxWeight) && iterator.hasNext()) {
+            this.weight -= iterator.next().weight;
+            iterator.remove();
+            this.evictions.increment();
+        }
+    }
+
+    /**
+     * Replaces a value only if the key is already cached.
+     *
+     * @param key key
+     * @param value value
+     * @param weight weight of the value
+     */
+    public synchronized void replace(K key, V value, long weight) {
+        if (this.map.containsKey(key)) {
+            this.put(key, value, weight);
+        }
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key key
+     */
+    public synchronized void remove(K key) {
+        Entry<V> entry = this.map.remove(key);
+        if (entry != null) {
+            this.weight -= entry.weight;
+        }
+    }
+
+    /**
+     * Removes everything.
+     */
+    public synchronized void clear() {
+        this.map.clear();
+        this.weight = 0;
+    }
+
+    public synchronized int size() {
+        return this.map.size();
+    }
+
+    public synchronized long getWeight() {
+        return this.weight;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return this.size() + " entries, " + (this.getWeight() / 1024) + " KiB, " + this.getHits() + " hits, " + this.getMisses() + " misses, " + this.getEvictions() + " evictions";
+    }
+}
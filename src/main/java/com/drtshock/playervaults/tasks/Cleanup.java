@@ -1,52 +1,201 @@
-/*
- * PlayerVaultsX
- * Copyright (C) 2013 Trent Hensler
- *
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- */
-
 package com.drtshock.playervaults.tasks;
 
 import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.storage.LastAccessIndex;
+import com.drtshock.playervaults.vaultmanagement.OpenVaultRegistry;
+import com.drtshock.playervaults.vaultmanagement.VaultManager;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Purges the vaults of holders that haven't used them in a while. A holder's last use is the later of when their
+ * vaults were last opened or saved, from the {@link LastAccessIndex}, and when their file or folder was last
+ * modified. Holders the index knows are recent are skipped without reading their file attributes, so runs after
+ * the first mostly cost a directory listing. Entries are handed to workers in batches as the listing is read, and
+ * vaults go through {@link VaultManager#deleteAllVaults(String)} so queued saves, locks and the journal are
+ * respected. Holders only known to the index, such as with SQLite storage, are purged by their index time.
+ */
 public class Cleanup implements Runnable {
+    private static final int BATCH_SIZE = 512;
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final String YML = ".yml";
 
     private final long diff;
+    private final long days;
+    private final boolean dryRun;
+    private final AtomicBoolean running = new AtomicBoolean();
 
-    public Cleanup(long diff) {
+    public Cleanup(long diff, boolean dryRun) {
+        this.days = diff;
         this.diff = diff * 86400000L;
+        this.dryRun = dryRun;
     }
 
     @Override
     public void run() {
-        File directory = PlayerVaults.getInstance().getVaultData();
-        if (!directory.exists()) {
-            // folder doesn't exist, don't run
+        if (!this.running.compareAndSet(false, true)) {
+            PlayerVaults.getInstance().getLogger().warning("Skipping cleanup, the previous one is still running");
             return;
         }
+        try {
+            this.purge();
+        } finally {
+            this.running.set(false);
+        }
+    }
+
+    private void purge() {
+        PlayerVaults plugin = PlayerVaults.getInstance();
+        Logger logger = plugin.getLogger();
+        Path directory = plugin.getVaultData().toPath();
+        VaultManager manager = VaultManager.getInstance();
+        LastAccessIndex index = manager.getLastAccess();
+        Run run = new Run(manager, index, plugin.getOpenVaults(), System.currentTimeMillis() - this.diff);
+
+        int workers = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "PlayerVaultsX Cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounds how much of the listing is held in memory, without starving the workers.
+        Semaphore inFlight = new Semaphore(workers * 2);
+        long start = System.nanoTime();
+        long lastReport = start;
+        try {
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    List<Path> batch = new ArrayList<>(BATCH_SIZE);
+                    for (Path path : stream) {
+                        batch.add(path);
+                        if (batch.size() == BATCH_SIZE) {
+                            submit(executor, inFlight, run, batch);
+                            batch = new ArrayList<>(BATCH_SIZE);
+                            if (System.nanoTime() - lastReport > REPORT_INTERVAL) {
+                                lastReport = System.nanoTime();
+                                logger.info(run.report(start, this.dryRun ? "would purge" : "purged"));
+                            }
+                        }
+                    }
+                    submit(executor, inFlight, run, batch);
+                }
+            }
+            // Wait for the workers by taking every permit back.
+            inFlight.acquire(workers * 2);
 
-        long time = System.currentTimeMillis();
-        for (File file : directory.listFiles()) {
-            if (file.isDirectory()) {
-                continue;
+            for (String holder : index.getHolders()) {
+                if (!run.seen.contains(holder)) {
+                    run.scanned.increment();
+                    run.check(holder, 0);
+                }
             }
-            if (time - file.lastModified() > diff) {
-                PlayerVaults.getInstance().getLogger().info("Deleting vault file (cleanup): " + file.getName());
-                file.delete();
+        } catch (IOException e) {
+            plugin.addException(new IllegalStateException("Failed to list vaults for cleanup", e));
+            logger.log(Level.SEVERE, "Failed to list vaults for cleanup", e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        manager.saveLastAccess();
+        logger.info(String.format("Cleanup %s: %s, idle for over %d days", this.dryRun ? "dry run done" : "done", run.report(start, this.dryRun ? "would purge" : "purged"), this.days));
+    }
+
+    private static void submit(ExecutorService executor, Semaphore inFlight, Run run, List<Path> batch) throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        inFlight.acquire();
+        executor.execute(() -> {
+            try {
+                for (Path path : batch) {
+                    run.check(path);
+                }
+            } finally {
+                inFlight.release();
             }
+        });
+    }
+
+    // State of one cleanup run, shared by its workers.
+    private class Run {
+        private final VaultManager manager;
+        private final LastAccessIndex index;
+        private final OpenVaultRegistry openVaults;
+        private final long cutoff;
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private final LongAdder scanned = new LongAdder();
+        private final LongAdder purged = new LongAdder();
+
+        private Run(VaultManager manager, LastAccessIndex index, OpenVaultRegistry openVaults, long cutoff) {
+            this.manager = manager;
+            this.index = index;
+            this.openVaults = openVaults;
+            this.cutoff = cutoff;
+        }
+
+        private void check(Path path) {
+            String name = path.getFileName().toString();
+            // Dot files are the plugin's own bookkeeping, like the conversion checkpoint.
+            if (name.startsWith(".") || name.equals("backups") || name.equals("migrated")) {
+                return;
+            }
+            // Flatfile storage keeps a file per holder, per-vault storage a folder.
+            String holder = name.endsWith(YML) ? name.substring(0, name.length() - YML.length()) : name;
+            this.seen.add(holder);
+            this.scanned.increment();
+            if (this.index.get(holder) > this.cutoff) {
+                return;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Gone since it was listed.
+                return;
+            }
+            if (!attributes.isDirectory() && !name.endsWith(YML)) {
+                return;
+            }
+            this.check(holder, attributes.lastModifiedTime().toMillis());
+        }
+
+        private void check(String holder, long modified) {
+            if (Math.max(modified, this.index.get(holder)) > this.cutoff || this.openVaults.isOpen(holder)) {
+                return;
+            }
+            this.purged.increment();
+            if (Cleanup.this.dryRun) {
+                PlayerVaults.getInstance().getLogger().info("Would delete vaults (cleanup dry run): " + holder);
+                return;
+            }
+            PlayerVaults.getInstance().getLogger().info("Deleting vaults (cleanup): " + holder);
+            this.manager.deleteAllVaults(holder);
+        }
+
+        private String report(long start, String action) {
+            double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) / 1000D;
+            long scanned = this.scanned.sum();
+            return String.format("scanned %d holders, %s %d, %.1f holders/s", scanned, action, this.purged.sum(), scanned / seconds);
         }
     }
 }
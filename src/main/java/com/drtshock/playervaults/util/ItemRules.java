@@ -0,0 +1,224 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.util;
+
+import com.drtshock.playervaults.config.file.Config;
+import com.drtshock.playervaults.events.BlacklistedItemEvent.Reason;
+import org.bukkit.Material;
+import org.bukkit.Registry;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * The item blocking rules from the config, compiled for checking every click in a vault. Checking an allowed item
+ * allocates nothing, and copies the item's meta at most once, only if a rule needs it. Immutable, recompiled on
+ * reload.
+ */
+public final class ItemRules {
+    /**
+     * Rules blocking nothing.
+     */
+    public static final ItemRules NONE = new ItemRules(EnumSet.noneOf(Material.class), new Enchantment[0], false, false);
+
+    // Order reasons are reported in, the first one is what the player is told.
+    private static final Reason[] ORDER = {Reason.HAS_MODEL_DATA, Reason.HAS_NO_MODEL_DATA, Reason.TYPE, Reason.ENCHANTMENT};
+    // Enchantments are tracked as bits of a long.
+    private static final int MAX_ENCHANTMENTS = Long.SIZE;
+
+    private final Set<Material> materials;
+    private final Enchantment[] enchantments;
+    private final boolean withModelData;
+    private final boolean withoutModelData;
+    private final boolean needsMeta;
+
+    private ItemRules(Set<Material> materials, Enchantment[] enchantments, boolean withModelData, boolean withoutModelData) {
+        this.materials = materials;
+        this.enchantments = enchantments;
+        this.withModelData = withModelData;
+        this.withoutModelData = withoutModelData;
+        this.needsMeta = withModelData || withoutModelData || enchantments.length > 0;
+    }
+
+    /**
+     * Compiles the rules from the config.
+     *
+     * @param config item blocking config
+     * @param logger logger to report added and invalid entries to
+     * @return compiled rules
+     */
+    public static ItemRules compile(Config.Block config, Logger logger) {
+        if (!config.isEnabled()) {
+            return NONE;
+        }
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        boolean withModelData = false;
+        boolean withoutModelData = false;
+        for (String s : config.getList()) {
+            if (s.equalsIgnoreCase("BLOCK_ALL_WITH_CUSTOM_MODEL_DATA")) {
+                withModelData = true;
+            }
+            if (s.equalsIgnoreCase("BLOCK_ALL_WITHOUT_CUSTOM_MODEL_DATA")) {
+                withoutModelData = true;
+            }
+            Material mat = Material.matchMaterial(s);
+            if (mat != null) {
+                materials.add(mat);
+                logger.log(Level.INFO, "Added {0} to list of blocked materials.", mat.name());
+            }
+        }
+
+        Set<Enchantment> enchantments = new LinkedHashSet<>();
+        boolean badEnch = false;
+        for (String s : config.getEnchantmentsBlocked()) {
+            Enchantment ench = Registry.ENCHANTMENT.match(s);
+            if (ench == null) {
+                badEnch = true;
+                logger.warning("Invalid enchantment in config: " + s);
+            } else if (enchantments.size() == MAX_ENCHANTMENTS) {
+                logger.warning("Can't block more than " + MAX_ENCHANTMENTS + " enchantments, ignoring " + s);
+            } else {
+                enchantments.add(ench);
+            }
+        }
+        if (badEnch) {
+            logger.info("Valid enchantent options: " + Registry.ENCHANTMENT.stream().map(e -> e.getKey().toString()).collect(Collectors.joining(", ")));
+        }
+
+        try {
+            ItemMeta.class.getMethod("hasCustomModelData");
+        } catch (NoSuchMethodException e) {
+            withModelData = false;
+            withoutModelData = false;
+        }
+        return new ItemRules(materials, enchantments.toArray(new Enchantment[0]), withModelData, withoutModelData);
+    }
+
+    /**
+     * Checks an item against the rules.
+     *
+     * @param item item
+     * @return the reasons it's blocked as {@link #bit(Reason)} flags, 0 if allowed
+     */
+    public int check(ItemStack item) {
+        int reasons = this.materials.contains(item.getType()) ? bit(Reason.TYPE) : 0;
+        if (!this.needsMeta) {
+            return reasons;
+        }
+        ItemMeta meta = item.hasItemMeta() ? item.getItemMeta() : null;
+        if (this.withModelData || this.withoutModelData) {
+            boolean modelData = meta != null && meta.hasCustomModelData();
+            if (modelData ? this.withModelData : this.withoutModelData) {
+                reasons |= bit(modelData ? Reason.HAS_MODEL_DATA : Reason.HAS_NO_MODEL_DATA);
+            }
+        }
+        if (meta != null && this.getEnchantments(meta) != 0) {
+            reasons |= bit(Reason.ENCHANTMENT);
+        }
+        return reasons;
+    }
+
+    /**
+     * Gets the flag of a reason in the result of {@link #check(ItemStack)}.
+     *
+     * @param reason reason
+     * @return flag
+     */
+    public static int bit(Reason reason) {
+        return 1 << reason.ordinal();
+    }
+
+    /**
+     * Lists the reasons in the result of {@link #check(ItemStack)}.
+     *
+     * @param reasons flags
+     * @return reasons, the one to tell the player first
+     */
+    public static List<Reason> getReasons(int reasons) {
+        List<Reason> list = new ArrayList<>(ORDER.length);
+        for (Reason reason : ORDER) {
+            if ((reasons & bit(reason)) != 0) {
+                list.add(reason);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gets the blocked materials.
+     *
+     * @return blocked materials
+     */
+    public Set<Material> getMaterials() {
+        return Collections.unmodifiableSet(this.materials);
+    }
+
+    public boolean isBlocked(Material material) {
+        return this.materials.contains(material);
+    }
+
+    public boolean isBlockWithModelData() {
+        return this.withModelData;
+    }
+
+    public boolean isBlockWithoutModelData() {
+        return this.withoutModelData;
+    }
+
+    /**
+     * Gets the blocked enchantments an item has.
+     *
+     * @param item item
+     * @return blocked enchantments on the item
+     */
+    public Set<Enchantment> getBlockedEnchantments(ItemStack item) {
+        Set<Enchantment> set = new LinkedHashSet<>();
+        long mask = item.hasItemMeta() && this.enchantments.length > 0 ? this.getEnchantments(item.getItemMeta()) : 0;
+        for (int i = 0; i < this.enchantments.length; i++) {
+            if ((mask & (1L << i)) != 0) {
+                set.add(this.enchantments[i]);
+            }
+        }
+        return set;
+    }
+
+    // Bit i is set if the item has the i-th blocked enchantment.
+    private long getEnchantments(ItemMeta meta) {
+        if (this.enchantments.length == 0 || !meta.hasEnchants()) {
+            return 0;
+        }
+        long mask = 0;
+        for (int i = 0; i < this.enchantments.length; i++) {
+            if (meta.hasEnchant(this.enchantments[i])) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+}
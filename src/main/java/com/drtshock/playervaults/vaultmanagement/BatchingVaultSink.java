@@ -0,0 +1,90 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import com.drtshock.playervaults.PlayerVaults;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sink that buffers up to a batch of vaults, then hands them to the save queue one holder at a time and waits for
+ * them to be written.
+ */
+class BatchingVaultSink implements VaultSink {
+    private static final int MAX_SIZE = 54;
+
+    private final VaultSaveQueue queue;
+    private final int batchSize;
+    // Holder - (vault number - contents), in the order holders first showed up.
+    private final Map<String, Map<Integer, ItemStack[]>> batch = new LinkedHashMap<>();
+    private int size;
+
+    BatchingVaultSink(VaultSaveQueue queue, int batchSize) {
+        this.queue = queue;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public void accept(String holder, int number, ItemStack[] contents) {
+        // Rounded up to whole rows, which only adds empty slots.
+        int length = contents.length == 0 ? MAX_SIZE : Math.min(MAX_SIZE, (contents.length + 8) / 9 * 9);
+        if (length != contents.length) {
+            int dropped = 0;
+            for (int slot = length; slot < contents.length; slot++) {
+                if (contents[slot] != null && contents[slot].getType() != Material.AIR) {
+                    dropped++;
+                }
+            }
+            if (dropped > 0) {
+                // Left for the admin to sort out, the source still has it.
+                PlayerVaults.getInstance().getLogger().warning("Not converting vault " + number + " of " + holder + ": it has " + contents.length + " slots, " + dropped + " items past slot " + MAX_SIZE + " would be lost");
+                return;
+            }
+            contents = Arrays.copyOf(contents, length);
+        }
+        if (this.batch.computeIfAbsent(holder, k -> new HashMap<>()).put(number, contents) == null) {
+            this.size++;
+        }
+        if (this.size >= this.batchSize) {
+            this.flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (this.batch.isEmpty()) {
+            return;
+        }
+        this.batch.forEach(this.queue::submitAll);
+        this.batch.clear();
+        this.size = 0;
+        // Backpressure: don't take more until this batch is on disk.
+        this.queue.flush();
+    }
+
+    @Override
+    public void close() {
+        this.flush();
+    }
+}
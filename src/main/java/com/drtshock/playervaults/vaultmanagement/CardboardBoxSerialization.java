@@ -12,18 +12,57 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public class CardboardBoxSerialization {
+    // Dense payloads start with the slot count, so a negative first int marks the sparse encoding. Nothing writes it
+    // anymore, but payloads already written that way are still read.
+    private static final int SPARSE = -1;
+    private static byte[] airBytes;
+    private static ItemCache itemCache = new ItemCache(0);
+
     private record BadData(String message, String data) {
     }
 
+    /**
+     * Gets the cache items are serialized through.
+     *
+     * @return the item cache
+     */
+    public static ItemCache getItemCache() {
+        return itemCache;
+    }
+
+    /**
+     * Replaces the cache items are serialized through.
+     *
+     * @param cache the new item cache
+     */
+    public static void setItemCache(ItemCache cache) {
+        itemCache = cache;
+    }
+
+    /**
+     * Serializes a single item, through the item cache. The returned array must not be modified.
+     *
+     * @param item item to serialize
+     * @return serialized item
+     */
+    public static byte[] serializeItem(ItemStack item) {
+        return itemCache.serialize(item);
+    }
+
     public static String toStorage(Inventory inventory, String target) {
+        return toStorage(inventory.getContents(), target);
+    }
+
+    public static String toStorage(ItemStack[] contents, String target) {
         try {
-            return Base64.getMimeEncoder().encodeToString(writeInventory(inventory.getContents()));
+            return Base64.getMimeEncoder().encodeToString(writeInventory(contents));
         } catch (Exception e) {
             throw PlayerVaults.getInstance().addException(new IllegalStateException("Failed to save items for " + target, e));
         }
@@ -31,56 +70,139 @@ public class CardboardBoxSerialization {
 
     public static ItemStack[] fromStorage(String data, String target) {
         if (data == null || data.isEmpty()) {
-            ItemStack[] i = new ItemStack[6 * 9];
-            for (int x = 0; x < i.length; x++) {
-                i[x] = new ItemStack(Material.AIR);
-            }
-            return i;
+            return emptyInventory();
         }
 
+        byte[] bytes;
         try {
-            DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.getMimeDecoder().decode(data)));
-            ItemStack[] contents = new ItemStack[input.readInt()];
-            List<BadData> exceptional = new ArrayList<>();
-            for (int i = 0; i < contents.length; i++) {
-                int len = input.readInt();
-                byte[] itemBytes = new byte[len];
-                input.readFully(itemBytes);
-                try {
-                    contents[i] = CardboardBox.deserializeItem(itemBytes);
-                } catch (Exception e) {
-                    if (e.getMessage().startsWith("Cardboard Box")) {
-                        throw e;
+            bytes = Base64.getMimeDecoder().decode(data);
+        } catch (Exception e) {
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load items for " + target + "\n" + data, e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load items for " + target, e);
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Data: " + data);
+            return null;
+        }
+        return readInventory(bytes, target);
+    }
+
+    public static ItemStack[] emptyInventory() {
+        return new ItemStack[6 * 9];
+    }
+
+    public static ItemStack[] readInventory(byte[] data, String target) {
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+            int size = input.readInt();
+            if (size == SPARSE) {
+                size = input.readInt();
+                int count = input.readInt();
+                if (count < 0 || count > size) {
+                    throw new IOException("Invalid item count " + count + " for " + size + " slots");
+                }
+                int[] slots = new int[count];
+                byte[][] items = new byte[count][];
+                for (int i = 0; i < count; i++) {
+                    slots[i] = input.readInt();
+                    if (slots[i] < 0 || slots[i] >= size) {
+                        throw new IOException("Invalid slot " + slots[i] + " for " + size + " slots");
                     }
-                    exceptional.add(new BadData(e.getMessage(), Base64.getMimeEncoder().encodeToString(itemBytes)));
-                    contents[i] = new ItemStack(Material.AIR);
+                    items[i] = new byte[input.readInt()];
+                    input.readFully(items[i]);
                 }
+                return readSlots(size, slots, items, target);
             }
-            if (!exceptional.isEmpty()) {
-                String output = exceptional.stream().map(e -> e.message + "\n" + e.data).collect(Collectors.joining("\n"));
-                PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load items for " + target + "\n" + output));
-                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load items for " + target);
-                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Items:\n" + output);
+
+            // Dense, every slot is stored including empty ones. Skip those without deserializing them.
+            byte[] air = airBytes();
+            int[] slots = new int[size];
+            byte[][] items = new byte[size][];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                byte[] itemBytes = new byte[input.readInt()];
+                input.readFully(itemBytes);
+                if (Arrays.equals(itemBytes, air)) {
+                    continue;
+                }
+                slots[count] = i;
+                items[count++] = itemBytes;
             }
-            return contents;
+            return readSlots(size, Arrays.copyOf(slots, count), items, target);
         } catch (Exception e) {
-            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load items for " + target + "\n" + data, e));
+            String encoded = Base64.getMimeEncoder().encodeToString(data);
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load items for " + target + "\n" + encoded, e));
             PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load items for " + target, e);
-            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Data: " + data);
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Data: " + encoded);
             return null;
         }
     }
 
+    /**
+     * Deserializes items into their slots. Slots without an item are left null.
+     *
+     * @param size inventory size
+     * @param slots slot of each item
+     * @param items serialized items
+     * @param target holder, for error reporting
+     * @return the contents
+     */
+    public static ItemStack[] readSlots(int size, int[] slots, byte[][] items, String target) {
+        ItemStack[] contents = new ItemStack[size];
+        List<BadData> exceptional = new ArrayList<>();
+        for (int i = 0; i < slots.length; i++) {
+            try {
+                ItemStack item = itemCache.deserialize(items[i]);
+                contents[slots[i]] = item == null || item.getType() == Material.AIR ? null : item;
+            } catch (Exception e) {
+                if (e.getMessage().startsWith("Cardboard Box")) {
+                    throw e;
+                }
+                exceptional.add(new BadData(e.getMessage(), Base64.getMimeEncoder().encodeToString(items[i])));
+            }
+        }
+        if (!exceptional.isEmpty()) {
+            String output = exceptional.stream().map(e -> e.message + "\n" + e.data).collect(Collectors.joining("\n"));
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to load items for " + target + "\n" + output));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load items for " + target);
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Items:\n" + output);
+        }
+        return contents;
+    }
+
+    /**
+     * Serializes an inventory in the dense layout every plugin version reads: the slot count, then every slot with
+     * empty ones as AIR. Flatfile YAML stays readable by a server that goes back to an older version this way. The
+     * sparse layout is only written inside the versioned {@link com.drtshock.playervaults.storage.VaultFileFormat}
+     * container.
+     *
+     * @param contents inventory contents
+     * @return serialized contents
+     * @throws IOException never, in practice
+     */
     public static byte[] writeInventory(ItemStack[] contents) throws IOException {
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         DataOutputStream out = new DataOutputStream(bytes);
+        byte[] air = airBytes();
         out.writeInt(contents.length);
         for (ItemStack content : contents) {
-            byte[] item = CardboardBox.serializeItem(content);
+            byte[] item = content == null || content.getType() == Material.AIR ? air : serializeItem(content);
             out.writeInt(item.length);
             out.write(item);
         }
         out.close();
         return bytes.toByteArray();
     }
+
+    // What an empty slot looks like in dense payloads written by this server version.
+    private static byte[] airBytes() {
+        if (airBytes == null) {
+            byte[] air = null;
+            try {
+                air = CardboardBox.serializeItem(new ItemStack(Material.AIR));
+            } catch (Exception ignored) {
+            }
+            // Fine without, empty slots are then written as nothing, and stored ones deserialized.
+            airBytes = air == null ? new byte[0] : air;
+        }
+        return airBytes;
+    }
 }
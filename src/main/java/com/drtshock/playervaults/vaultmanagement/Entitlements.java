@@ -0,0 +1,131 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import com.drtshock.playervaults.util.Permission;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches how many vaults, and how large, each online player may have, resolved from their permissions once instead
+ * of probing every amount node on each check. Entries are dropped when the player quits or changes world, on
+ * reload, and when {@link #invalidate(UUID)} is called. Bukkit has no event for permission changes, so entries also
+ * expire after a while to pick up changes made while the player is online. Thread-safe.
+ */
+public class Entitlements {
+    /**
+     * What a player may have.
+     *
+     * @param maxVaults highest vault number they may open, 0 for none
+     * @param maxSize largest vault size in slots
+     * @param expires {@link System#nanoTime()} after which this is resolved again
+     */
+    public record Entitlement(int maxVaults, int maxSize, long expires) {
+    }
+
+    private static final long TTL = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_ROWS = 6;
+
+    private final Map<UUID, Entitlement> cache = new ConcurrentHashMap<>();
+    private final int maxVaultAmountPermTest;
+    private final int defaultSize;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxVaultAmountPermTest highest vault number to test permissions for
+     * @param defaultSize size for players without a size permission
+     */
+    public Entitlements(int maxVaultAmountPermTest, int defaultSize) {
+        this.maxVaultAmountPermTest = maxVaultAmountPermTest;
+        this.defaultSize = defaultSize;
+    }
+
+    /**
+     * Gets what a player may have, resolving it if not cached.
+     *
+     * @param player player
+     * @return entitlement
+     */
+    public Entitlement get(Player player) {
+        Entitlement entitlement = this.cache.get(player.getUniqueId());
+        if (entitlement == null || System.nanoTime() - entitlement.expires() > 0) {
+            entitlement = this.resolve(player);
+            this.cache.put(player.getUniqueId(), entitlement);
+        }
+        return entitlement;
+    }
+
+    /**
+     * Drops a player's cached entitlement, for when their permissions changed.
+     *
+     * @param player player
+     */
+    public void invalidate(UUID player) {
+        this.cache.remove(player);
+    }
+
+    private Entitlement resolve(Player player) {
+        int maxVaults = 0;
+        int maxRows = 0;
+        for (PermissionAttachmentInfo info : player.getEffectivePermissions()) {
+            if (!info.getValue()) {
+                continue;
+            }
+            String permission = info.getPermission();
+            if (permission.startsWith(Permission.AMOUNT_PREFIX)) {
+                int amount = parse(permission, Permission.AMOUNT_PREFIX.length());
+                if (amount <= this.maxVaultAmountPermTest) {
+                    maxVaults = Math.max(maxVaults, amount);
+                }
+            } else if (permission.startsWith(Permission.SIZE_PREFIX)) {
+                int rows = parse(permission, Permission.SIZE_PREFIX.length());
+                if (rows <= MAX_ROWS) {
+                    maxRows = Math.max(maxRows, rows);
+                }
+            }
+        }
+        // Nodes granted by wildcards, or to ops by default, don't show up as effective permissions.
+        if (maxVaults < this.maxVaultAmountPermTest && player.hasPermission(Permission.amount(this.maxVaultAmountPermTest))) {
+            maxVaults = this.maxVaultAmountPermTest;
+        }
+        if (maxRows < MAX_ROWS && player.hasPermission(Permission.size(MAX_ROWS))) {
+            maxRows = MAX_ROWS;
+        }
+        return new Entitlement(maxVaults, maxRows == 0 ? this.defaultSize : maxRows * 9, System.nanoTime() + TTL);
+    }
+
+    // The number after the prefix, or 0 if there isn't one.
+    private static int parse(String permission, int start) {
+        int value = 0;
+        for (int i = start; i < permission.length(); i++) {
+            char c = permission.charAt(i);
+            if (c < '0' || c > '9' || value > 100_000) {
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read-write locks ordering access to each holder's stored vaults. Writes to a holder exclude each other and
+ * its reads, while reads of a holder, and anything on holders in other stripes, run in parallel. A fixed number of
+ * locks is shared by all holders, so nothing has to be created or cleaned up per holder.
+ * <p>
+ * Locks are reentrant, but a read lock can't be upgraded to a write lock, and only one holder's lock should be held
+ * at a time since two holders may share a stripe.
+ */
+class HolderLocks {
+    private final ReadWriteLock[] stripes;
+    private final int mask;
+
+    /**
+     * Creates the locks.
+     *
+     * @param stripes minimum number of stripes, rounded up to a power of two
+     */
+    HolderLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Gets the lock for reading a holder's vaults.
+     *
+     * @param holder holder
+     * @return read lock
+     */
+    Lock read(String holder) {
+        return this.stripe(holder).readLock();
+    }
+
+    /**
+     * Gets the lock for changing a holder's vaults.
+     *
+     * @param holder holder
+     * @return write lock
+     */
+    Lock write(String holder) {
+        return this.stripe(holder).writeLock();
+    }
+
+    private ReadWriteLock stripe(String holder) {
+        int hash = holder.hashCode();
+        return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import dev.kitteh.cardboardbox.CardboardBox;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU caches around CardboardBox. Vaults are full of identical stacks, so an item that was serialized
+ * once is looked up by its identity (type, amount, meta) instead of going through NBT again, and identical byte
+ * payloads are deserialized once and handed out as clones.
+ */
+public class ItemCache {
+    private record Bytes(byte[] data, int hash) {
+        Bytes(byte[] data) {
+            this(data, Arrays.hashCode(data));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bytes other && this.hash == other.hash && Arrays.equals(this.data, other.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private final int maxSize;
+    private final Map<ItemStack, byte[]> serialized;
+    private final Map<Bytes, ItemStack> deserialized;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize entries kept per direction, 0 to disable caching
+     */
+    public ItemCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.serialized = lru(this.maxSize);
+        this.deserialized = lru(this.maxSize);
+    }
+
+    private static <K, V> Map<K, V> lru(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Serializes an item. The returned array is shared and must not be modified.
+     *
+     * @param item item to serialize
+     * @return serialized item
+     */
+    public byte[] serialize(ItemStack item) {
+        if (this.maxSize == 0) {
+            return CardboardBox.serializeItem(item);
+        }
+        byte[] data;
+        synchronized (this.serialized) {
+            data = this.serialized.get(item);
+        }
+        if (data != null) {
+            this.hits.increment();
+            return data;
+        }
+        this.misses.increment();
+        data = CardboardBox.serializeItem(item);
+        synchronized (this.serialized) {
+            // Clone, the caller's stack may still change.
+            this.serialized.put(item.clone(), data);
+        }
+        return data;
+    }
+
+    /**
+     * Deserializes an item. Every call returns a new stack.
+     *
+     * @param data serialized item
+     * @return deserialized item
+     */
+    public ItemStack deserialize(byte[] data) {
+        if (this.maxSize == 0) {
+            return CardboardBox.deserializeItem(data);
+        }
+        Bytes key = new Bytes(data);
+        ItemStack item;
+        synchronized (this.deserialized) {
+            item = this.deserialized.get(key);
+        }
+        if (item != null) {
+            this.hits.increment();
+            return item.clone();
+        }
+        this.misses.increment();
+        item = CardboardBox.deserializeItem(data);
+        if (item != null) {
+            synchronized (this.deserialized) {
+                this.deserialized.put(key, item.clone());
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return hits
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that went through CardboardBox.
+     *
+     * @return misses
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Gets the share of lookups answered from the cache.
+     *
+     * @return hit rate in percent, 0 if nothing was looked up yet
+     */
+    public int getHitRate() {
+        long hits = this.getHits();
+        long total = hits + this.getMisses();
+        return total == 0 ? 0 : (int) (hits * 100 / total);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import org.bukkit.inventory.Inventory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which vaults are open, and which vault each player is looking at. A vault's inventory is shared by everyone
+ * viewing it and counted, so the last viewer to leave knows to save it. Safe to use from any thread.
+ */
+public class OpenVaultRegistry {
+
+    /**
+     * A player leaving a vault.
+     *
+     * @param vault the vault left
+     * @param inventory the vault's shared inventory, or null if it wasn't registered
+     * @param last true if nobody else is viewing the vault, so it should be saved
+     */
+    public record Exit(VaultKey vault, Inventory inventory, boolean last) {
+    }
+
+    private static final class OpenVault {
+        private final Inventory inventory;
+        private int viewers;
+
+        private OpenVault(Inventory inventory) {
+            this.inventory = inventory;
+        }
+    }
+
+    // Player - vault they're in.
+    private final Map<UUID, VaultKey> viewing = new ConcurrentHashMap<>();
+    private final Map<VaultKey, OpenVault> open = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the vault a player is in.
+     *
+     * @param player player
+     * @return the vault, or null if not in one
+     */
+    public VaultKey getViewing(UUID player) {
+        return this.viewing.get(player);
+    }
+
+    public boolean isViewing(UUID player) {
+        return this.viewing.containsKey(player);
+    }
+
+    /**
+     * Gets all players currently in a vault.
+     *
+     * @return a snapshot of the players
+     */
+    public Set<UUID> getViewers() {
+        return Set.copyOf(this.viewing.keySet());
+    }
+
+    /**
+     * Gets all open vaults.
+     *
+     * @return a snapshot of the vaults
+     */
+    public Set<VaultKey> getOpen() {
+        return Set.copyOf(this.open.keySet());
+    }
+
+    /**
+     * Gets the shared inventory of an open vault.
+     *
+     * @param vault vault
+     * @return the inventory, or null if the vault isn't open
+     */
+    public Inventory getInventory(VaultKey vault) {
+        OpenVault open = this.open.get(vault);
+        return open == null ? null : open.inventory;
+    }
+
+    /**
+     * Checks if any vault of a holder is open.
+     *
+     * @param holder holder
+     * @return true if one is open
+     */
+    public boolean isOpen(String holder) {
+        for (VaultKey vault : this.open.keySet()) {
+            if (vault.getHolder().equals(holder)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers a freshly loaded vault inventory, unless the vault got opened in the meantime.
+     *
+     * @param vault vault
+     * @param inventory inventory
+     * @return the inventory now registered for the vault
+     */
+    public Inventory register(VaultKey vault, Inventory inventory) {
+        return this.open.computeIfAbsent(vault, k -> new OpenVault(inventory)).inventory;
+    }
+
+    /**
+     * Drops a registered vault that nobody ended up viewing, such as when opening was cancelled.
+     *
+     * @param vault vault
+     */
+    public void discardIfUnused(VaultKey vault) {
+        this.open.computeIfPresent(vault, (k, open) -> open.viewers > 0 ? open : null);
+    }
+
+    /**
+     * Forgets an open vault regardless of its viewers, for when it was deleted. Viewers leaving it afterwards won't
+     * save it.
+     *
+     * @param vault vault
+     */
+    public void forget(VaultKey vault) {
+        this.open.remove(vault);
+    }
+
+    /**
+     * Records a player entering a vault, registering its inventory if it isn't yet. Entering the vault they're
+     * already in does nothing.
+     *
+     * @param player player
+     * @param vault vault
+     * @param inventory the inventory they opened
+     */
+    public void enter(UUID player, VaultKey vault, Inventory inventory) {
+        VaultKey previous = this.viewing.put(player, vault);
+        if (vault.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            this.release(previous);
+        }
+        this.open.compute(vault, (k, open) -> {
+            if (open == null) {
+                open = new OpenVault(inventory);
+            }
+            open.viewers++;
+            return open;
+        });
+    }
+
+    /**
+     * Records a player leaving their vault. If they were the last viewer, the vault is no longer open afterwards.
+     *
+     * @param player player
+     * @return the exit, or null if the player wasn't in a vault
+     */
+    public Exit leave(UUID player) {
+        VaultKey vault = this.viewing.remove(player);
+        if (vault == null) {
+            return null;
+        }
+        OpenVault open = this.open.get(vault);
+        return new Exit(vault, open == null ? null : open.inventory, open != null && this.release(vault));
+    }
+
+    // Returns true if this was the last viewer.
+    private boolean release(VaultKey vault) {
+        boolean[] last = new boolean[1];
+        this.open.computeIfPresent(vault, (k, open) -> {
+            if (--open.viewers > 0) {
+                return open;
+            }
+            last[0] = true;
+            return null;
+        });
+        return last[0];
+    }
+}
@@ -18,8 +18,10 @@
 
 package com.drtshock.playervaults.vaultmanagement;
 
+import org.bukkit.Material;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
 
 /**
  * Represents a VaultHolder to assist in detection of Player Vaults from other plugins.
@@ -28,6 +30,8 @@ public class VaultHolder implements InventoryHolder {
 
     private Inventory inventory;
     private final int vaultNumber;
+    private long fingerprint;
+    private boolean modified;
 
     /**
      * Creates a new vault holder
@@ -59,5 +63,39 @@ public class VaultHolder implements InventoryHolder {
      */
     public void setInventory(Inventory inventory) {
         this.inventory = inventory;
+        this.markSaved();
+    }
+
+    /**
+     * Marks the vault as changed since it was loaded or last saved.
+     */
+    public void markModified() {
+        this.modified = true;
+    }
+
+    /**
+     * Marks the current contents as the ones in storage.
+     */
+    public void markSaved() {
+        this.modified = false;
+        this.fingerprint = this.inventory == null ? 0 : fingerprint(this.inventory.getContents());
+    }
+
+    /**
+     * Gets if the vault changed since it was loaded or last saved, either through a player interacting with it or
+     * through anything else touching the contents.
+     *
+     * @return true if the vault needs saving
+     */
+    public boolean isModified() {
+        return this.modified || this.inventory == null || this.fingerprint != fingerprint(this.inventory.getContents());
+    }
+
+    private static long fingerprint(ItemStack[] contents) {
+        long hash = contents.length;
+        for (ItemStack item : contents) {
+            hash = hash * 1_000_003L + (item == null || item.getType() == Material.AIR ? 0 : item.hashCode());
+        }
+        return hash;
     }
 }
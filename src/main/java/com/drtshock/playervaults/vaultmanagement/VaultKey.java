@@ -0,0 +1,172 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Identifies a vault by its holder and number. Player holders are kept as the two halves of their UUID, so keys are
+ * cheap to build, hash and compare. Holders that aren't a UUID, left over from legacy plugin integrations, are kept
+ * as their name instead. Immutable.
+ */
+public final class VaultKey {
+    // Vault numbers with a precomputed storage key, covering every vault a normal setup has.
+    private static final int CACHED_KEYS = 128;
+    private static final String[] STORAGE_KEYS = new String[CACHED_KEYS];
+
+    static {
+        for (int i = 0; i < CACHED_KEYS; i++) {
+            STORAGE_KEYS[i] = "vault" + i;
+        }
+    }
+
+    private final long most;
+    private final long least;
+    private final int number;
+    // Null for player holders.
+    private final String name;
+    private final int hash;
+    // Created on first use.
+    private String holder;
+
+    private VaultKey(long most, long least, String name, int number) {
+        this.most = most;
+        this.least = least;
+        this.name = name;
+        this.number = number;
+        int hash = name == null ? Long.hashCode(most ^ least) : name.hashCode();
+        this.hash = 31 * hash + number;
+    }
+
+    /**
+     * Gets the key of a player's vault.
+     *
+     * @param player player
+     * @param number vault number
+     * @return key
+     */
+    public static VaultKey of(UUID player, int number) {
+        return new VaultKey(player.getMostSignificantBits(), player.getLeastSignificantBits(), null, number);
+    }
+
+    /**
+     * Gets the key of a vault.
+     *
+     * @param holder holder, usually a UUID
+     * @param number vault number
+     * @return key
+     */
+    public static VaultKey of(String holder, int number) {
+        // Only a canonical UUID string maps back to the same holder, anything else is kept as is.
+        if (holder.length() == 36 && holder.charAt(8) == '-') {
+            try {
+                UUID uuid = UUID.fromString(holder);
+                if (uuid.toString().equals(holder)) {
+                    VaultKey key = of(uuid, number);
+                    key.holder = holder;
+                    return key;
+                }
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return new VaultKey(0, 0, holder, number);
+    }
+
+    /**
+     * Gets the key a vault is stored under in a holder's flat file.
+     *
+     * @param number vault number
+     * @return "vault" followed by the number
+     */
+    public static String storageKey(int number) {
+        return number >= 0 && number < CACHED_KEYS ? STORAGE_KEYS[number] : "vault" + number;
+    }
+
+    /**
+     * Gets whether the holder is a player.
+     *
+     * @return true if the holder is a UUID
+     */
+    public boolean isPlayer() {
+        return this.name == null;
+    }
+
+    /**
+     * Gets the holder as a UUID.
+     *
+     * @return the UUID, or null if the holder isn't a player
+     */
+    public UUID getUniqueId() {
+        return this.name == null ? new UUID(this.most, this.least) : null;
+    }
+
+    /**
+     * Gets the holder of the vault.
+     *
+     * @return the holder, as used by storage
+     */
+    public String getHolder() {
+        String holder = this.holder;
+        if (holder == null) {
+            holder = this.name == null ? new UUID(this.most, this.least).toString() : this.name;
+            this.holder = holder;
+        }
+        return holder;
+    }
+
+    /**
+     * Get the vault number.
+     *
+     * @return The vault number.
+     */
+    public int getNumber() {
+        return this.number;
+    }
+
+    /**
+     * Gets the key this vault is stored under in its holder's flat file.
+     *
+     * @return storage key
+     */
+    public String getStorageKey() {
+        return storageKey(this.number);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VaultKey other)) {
+            return false;
+        }
+        return this.most == other.most && this.least == other.least && this.number == other.number && Objects.equals(this.name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return this.getHolder() + " " + this.number;
+    }
+}
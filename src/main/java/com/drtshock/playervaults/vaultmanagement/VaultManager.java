@@ -19,38 +19,132 @@
 package com.drtshock.playervaults.vaultmanagement;
 
 import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.config.file.Config;
+import com.drtshock.playervaults.storage.BackupStore;
+import com.drtshock.playervaults.storage.FlatFileStorage;
+import com.drtshock.playervaults.storage.JournalStorage;
+import com.drtshock.playervaults.storage.LastAccessIndex;
+import com.drtshock.playervaults.storage.PerVaultFileStorage;
+import com.drtshock.playervaults.storage.SqliteStorage;
+import com.drtshock.playervaults.storage.VaultStorage;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
-import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class VaultManager {
 
-    private static final String VAULTKEY = "vault%d";
+    private static final int SINK_BATCH_SIZE = 1000;
+    private static final int LOADER_THREADS = 2;
+    private static final int LOCK_STRIPES = 256;
     private static VaultManager instance;
-    private final File directory = PlayerVaults.getInstance().getVaultData();
-    private final Map<String, YamlConfiguration> cachedVaultFiles = new ConcurrentHashMap<>();
+    private final VaultStorage storage;
+    private final VaultSaveQueue saveQueue;
     private final PlayerVaults plugin;
+    private final LongAdder savesSkipped = new LongAdder();
+    private final LongAdder savesWritten = new LongAdder();
+    private final BackupStore backups;
+    // Holders written since their last backup
+    private final Set<String> changedHolders = ConcurrentHashMap.newKeySet();
+    // Orders reads and writes of each holder's stored vaults
+    private final HolderLocks locks = new HolderLocks(LOCK_STRIPES);
+    private final LastAccessIndex lastAccess;
+    // Vaults being loaded by loadVaultAsync, so a second request joins the first
+    private final Map<VaultKey, CompletableFuture<Inventory>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "PlayerVaultsX loader");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public VaultManager(PlayerVaults plugin) {
         this.plugin = plugin;
+        CardboardBoxSerialization.setItemCache(new ItemCache(plugin.getConf().getStorage().getItemCacheSize()));
+        this.storage = createStorage(plugin, this.locks::write);
+        Config.Storage.FlatFile flatFile = plugin.getConf().getStorage().getFlatFile();
+        this.backups = flatFile.isBackups() ? new BackupStore(plugin.getBackupsFolder().toPath(), flatFile.getBackupGenerations()) : null;
+        this.saveQueue = new VaultSaveQueue(this::writeVaults, this::commitVaults, plugin.getConf().getStorage().getSaveWindowMillis());
+        this.lastAccess = new LastAccessIndex(new File(plugin.getDataFolder(), "last-access.txt").toPath());
+        try {
+            this.lastAccess.load();
+        } catch (IOException e) {
+            plugin.addException(new IllegalStateException("Failed to read last access index", e));
+            plugin.getLogger().log(Level.SEVERE, "Failed to read last access index, cleanup goes by file times until vaults are used again", e);
+        }
         instance = this;
     }
 
+    private static VaultStorage createStorage(PlayerVaults plugin, Function<String, Lock> holderLock) {
+        VaultStorage storage = createPrimaryStorage(plugin);
+        Config.Storage config = plugin.getConf().getStorage();
+        if (!config.isJournal()) {
+            return storage;
+        }
+        try {
+            return new JournalStorage(storage, new File(plugin.getDataFolder(), "journal").toPath(), config.getJournalCompactSeconds(), holderLock);
+        } catch (IOException e) {
+            plugin.addException(new IllegalStateException("Failed to open vault journal", e));
+            plugin.getLogger().log(Level.SEVERE, "Failed to open vault journal, saving to storage directly. Vaults still in the journal are replayed once it opens again", e);
+            return storage;
+        }
+    }
+
+    private static VaultStorage createPrimaryStorage(PlayerVaults plugin) {
+        String type = plugin.getConf().getStorage().getStorageType();
+        switch (type.toLowerCase(Locale.ROOT)) {
+            case "pervault":
+                PerVaultFileStorage perVault = new PerVaultFileStorage(plugin.getVaultData());
+                plugin.getServer().getScheduler().runTaskAsynchronously(plugin, perVault::migrateAll);
+                return perVault;
+            case "sqlite":
+                try {
+                    SqliteStorage sqlite = new SqliteStorage(new File(plugin.getDataFolder(), "vaults.db"), plugin.getVaultData(), 4);
+                    plugin.getServer().getScheduler().runTaskAsynchronously(plugin, sqlite::migrateAll);
+                    return sqlite;
+                } catch (SQLException e) {
+                    plugin.addException(new IllegalStateException("Failed to open SQLite database", e));
+                    plugin.getLogger().log(Level.SEVERE, "Failed to open SQLite database, using flatfile", e);
+                    return createFlatFileStorage(plugin);
+                }
+            case "flatfile":
+                return createFlatFileStorage(plugin);
+            default:
+                plugin.getLogger().warning("Unknown storage type '" + type + "', using flatfile");
+                return createFlatFileStorage(plugin);
+        }
+    }
+
+    private static FlatFileStorage createFlatFileStorage(PlayerVaults plugin) {
+        Config.Storage.FlatFile config = plugin.getConf().getStorage().getFlatFile();
+        return new FlatFileStorage(plugin.getVaultData(), config.getCacheMaxFiles(), config.getCacheMaxMegabytes() * 1024L * 1024L, config.isLazyLoad());
+    }
+
     /**
      * Get the instance of this class.
      *
@@ -61,22 +155,220 @@ public class VaultManager {
     }
 
     /**
-     * Saves the inventory to the specified player and vault number.
+     * Saves the inventory to the specified player and vault number. Only a snapshot of the contents is taken here,
+     * serializing and writing happens later on the I/O thread.
      *
      * @param inventory The inventory to be saved.
      * @param target The player of whose file to save to.
      * @param number The vault number.
      */
     public void saveVault(Inventory inventory, String target, int number) {
-        YamlConfiguration yaml = getPlayerVaultFile(target, true);
-        int size = VaultOperations.getMaxVaultSize(target);
-        String serialized = CardboardBoxSerialization.toStorage(inventory, target);
-        yaml.set(String.format(VAULTKEY, number), serialized);
-        saveFileSync(target, yaml);
+        if (inventory.getHolder() instanceof VaultHolder vaultHolder) {
+            if (!vaultHolder.isModified()) {
+                PlayerVaults.debug("Vault " + number + " of " + target + " unchanged, not saving");
+                this.savesSkipped.increment();
+                return;
+            }
+            vaultHolder.markSaved();
+        }
+        this.savesWritten.increment();
+        this.saveQueue.submit(target, number, snapshot(inventory.getContents()));
+    }
+
+    /**
+     * Opens a sink for storing many vaults at once, such as from a converter. Writing blocks, so should only be
+     * used asynchronously.
+     *
+     * @return a new sink, to be closed once done
+     */
+    public VaultSink openSink() {
+        return new BatchingVaultSink(this.saveQueue, SINK_BATCH_SIZE);
+    }
+
+    /**
+     * Gets how many vault saves were skipped because nothing changed.
+     *
+     * @return skipped saves
+     */
+    public long getSavesSkipped() {
+        return this.savesSkipped.sum();
+    }
+
+    /**
+     * Gets how many vault saves were queued to be written.
+     *
+     * @return written saves
+     */
+    public long getSavesWritten() {
+        return this.savesWritten.sum();
+    }
+
+    /**
+     * Blocks until all queued vault saves have been written.
+     */
+    public void flush() {
+        this.saveQueue.flush();
+    }
+
+    /**
+     * Writes all queued vault saves and stops the I/O thread. Saves made afterwards are written synchronously.
+     */
+    public void shutdown() {
+        this.loader.shutdownNow();
+        this.saveQueue.shutdown();
+        this.backupChanged();
+        this.storage.close();
+        this.saveLastAccess();
+    }
+
+    /**
+     * Gets when each holder's vaults were last opened or saved.
+     *
+     * @return the last access index
+     */
+    public LastAccessIndex getLastAccess() {
+        return this.lastAccess;
+    }
+
+    /**
+     * Writes the last access index if it changed.
+     */
+    public void saveLastAccess() {
+        try {
+            this.lastAccess.save();
+        } catch (IOException e) {
+            this.plugin.getLogger().log(Level.SEVERE, "Failed to save last access index", e);
+        }
+    }
+
+    /**
+     * Gets the backup store.
+     *
+     * @return the backup store, or null if backups are disabled
+     */
+    public BackupStore getBackups() {
+        return this.backups;
+    }
+
+    /**
+     * Backs up every holder whose vaults were written since their last backup. Should only be run asynchronously.
+     */
+    public void backupChanged() {
+        if (this.backups == null || this.changedHolders.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (String holder : Set.copyOf(this.changedHolders)) {
+            this.changedHolders.remove(holder);
+            Map<Integer, ItemStack[]> vaults = new TreeMap<>();
+            // Held across all vaults, so the generation is consistent.
+            Lock lock = this.locks.read(holder);
+            lock.lock();
+            try {
+                for (int number : this.getVaultNumbers(holder)) {
+                    ItemStack[] contents = this.getContents(holder, number);
+                    if (contents != null) {
+                        vaults.put(number, contents);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (this.backups.backup(holder, vaults)) {
+                    count++;
+                }
+            } catch (IOException e) {
+                this.changedHolders.add(holder);
+                PlayerVaults.getInstance().addException(new IllegalStateException("Failed to back up vaults for: " + holder, e));
+                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to back up vaults for: " + holder, e);
+            }
+        }
+        try {
+            int removed = this.backups.sweep();
+            PlayerVaults.debug("Backed up " + count + " holders, removed " + removed + " unused chunks", start);
+        } catch (IOException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.WARNING, "Failed to remove unused backup chunks", e);
+        }
+    }
+
+    /**
+     * Replaces all of a holder's vaults with the given ones. Blocks until written, so should only be run
+     * asynchronously, and not while any of the holder's vaults are open.
+     *
+     * @param holder holder
+     * @param vaults vault number - contents
+     * @throws IOException if writing fails
+     */
+    public void restoreVaults(String holder, Map<Integer, ItemStack[]> vaults) throws IOException {
+        this.saveQueue.discard(holder);
+        IOException[] failure = new IOException[1];
+        // Runs on the I/O thread so it can't be overtaken by a save queued before it.
+        this.saveQueue.execute(() -> {
+            Lock lock = this.locks.write(holder);
+            lock.lock();
+            try {
+                this.storage.deleteAll(holder);
+                this.storage.save(holder, vaults);
+                this.storage.commit();
+            } catch (IOException e) {
+                failure[0] = e;
+            } finally {
+                lock.unlock();
+            }
+        });
+        this.saveQueue.flush();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        this.changedHolders.add(holder);
+    }
+
+    /**
+     * Gets the storage vaults are persisted to.
+     *
+     * @return the storage
+     */
+    public VaultStorage getStorage() {
+        return this.storage;
+    }
+
+    private static ItemStack[] snapshot(ItemStack[] contents) {
+        ItemStack[] snapshot = new ItemStack[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            snapshot[i] = contents[i] == null ? null : contents[i].clone();
+        }
+        return snapshot;
+    }
+
+    // Called on the I/O thread
+    private void writeVaults(String holder, Map<Integer, ItemStack[]> vaults) {
+        Lock lock = this.locks.write(holder);
+        lock.lock();
+        try {
+            this.storage.save(holder, vaults);
+            this.changedHolders.add(holder);
+            this.lastAccess.touch(holder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called on the I/O thread
+    private void commitVaults() {
+        try {
+            this.storage.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Load the player's vault and return it.
+     * Load the player's vault and return it. Reads storage on the calling thread, see
+     * {@link #loadVaultAsync(String, int, int, boolean)} to keep that off the main thread.
      *
      * @param player The holder of the vault.
      * @param number The vault number.
@@ -88,27 +380,33 @@ public class VaultManager {
 
         PlayerVaults.debug("Loading self vault for " + player.getName() + " (" + player.getUniqueId() + ')');
 
-        String title = PlayerVaults.getInstance().getVaultTitle(String.valueOf(number));
-        VaultViewInfo info = new VaultViewInfo(player.getUniqueId().toString(), number);
-        if (PlayerVaults.getInstance().getOpenInventories().containsKey(info.toString())) {
+        String title = PlayerVaults.getInstance().getVaultTitle(number);
+        VaultKey info = VaultKey.of(player.getUniqueId(), number);
+        OpenVaultRegistry registry = PlayerVaults.getInstance().getOpenVaults();
+        Inventory open = registry.getInventory(info);
+        if (open != null) {
             PlayerVaults.debug("Already open");
-            return PlayerVaults.getInstance().getOpenInventories().get(info.toString());
+            return open;
         }
 
-        YamlConfiguration playerFile = getPlayerVaultFile(player.getUniqueId().toString(), true);
+        this.lastAccess.touch(player.getUniqueId().toString());
         VaultHolder vaultHolder = new VaultHolder(number);
-        if (playerFile.getString(String.format(VAULTKEY, number)) == null) {
+        if (!vaultExists(player.getUniqueId().toString(), number)) {
             PlayerVaults.debug("No vault matching number");
             Inventory inv = Bukkit.createInventory(vaultHolder, size, title);
             vaultHolder.setInventory(inv);
-            return inv;
+            // Save on close even if left empty, the vault exists (and may have been paid for) from now on.
+            vaultHolder.markModified();
+            return registry.register(info, inv);
         } else {
-            return getInventory(vaultHolder, player.getUniqueId().toString(), playerFile, size, number, title);
+            Inventory inv = getInventory(vaultHolder, player.getUniqueId().toString(), size, number, title, getContents(player.getUniqueId().toString(), number));
+            return inv == null ? null : registry.register(info, inv);
         }
     }
 
     /**
-     * Load the player's vault and return it.
+     * Load the player's vault and return it. Reads storage on the calling thread, see
+     * {@link #loadVaultAsync(String, int, int, boolean)} to keep that off the main thread.
      *
      * @param name The holder of the vault.
      * @param number The vault number.
@@ -130,41 +428,110 @@ public class VaultManager {
             // Not a player
         }
 
-        String title = PlayerVaults.getInstance().getVaultTitle(String.valueOf(number));
-        VaultViewInfo info = new VaultViewInfo(name, number);
-        Inventory inv;
-        VaultHolder vaultHolder = new VaultHolder(number);
-        if (PlayerVaults.getInstance().getOpenInventories().containsKey(info.toString())) {
+        String title = PlayerVaults.getInstance().getVaultTitle(number);
+        VaultKey info = VaultKey.of(name, number);
+        OpenVaultRegistry registry = PlayerVaults.getInstance().getOpenVaults();
+        Inventory inv = registry.getInventory(info);
+        if (inv != null) {
             PlayerVaults.debug("Already open");
-            inv = PlayerVaults.getInstance().getOpenInventories().get(info.toString());
-        } else {
-            YamlConfiguration playerFile = getPlayerVaultFile(holder, true);
-            Inventory i = getInventory(vaultHolder, holder, playerFile, size, number, title);
-            if (i == null) {
-                return null;
-            } else {
-                inv = i;
-            }
-            PlayerVaults.getInstance().getOpenInventories().put(info.toString(), inv);
+            return inv;
+        }
+        this.lastAccess.touch(holder);
+        inv = getInventory(new VaultHolder(number), holder, size, number, title, getContents(holder, number));
+        return inv == null ? null : registry.register(info, inv);
+    }
+
+    /**
+     * Loads a vault without blocking the main thread. Reading and decoding happen on a loader thread, only the
+     * inventory is created on the main thread. Requests for a vault that is already being loaded get the same
+     * future, so repeated clicks don't load it twice.
+     *
+     * @param holder The holder of the vault.
+     * @param number The vault number.
+     * @param size vault size, the default if not a multiple of 9.
+     * @param create true if a vault that doesn't exist yet is being created, so it's saved even if left empty.
+     * @return a future completed on the main thread with the vault's shared inventory.
+     */
+    public CompletableFuture<Inventory> loadVaultAsync(String holder, int number, int size, boolean create) {
+        int vaultSize = size % 9 == 0 ? size : PlayerVaults.getInstance().getDefaultVaultSize();
+        VaultKey key = VaultKey.of(holder, number);
+        OpenVaultRegistry registry = PlayerVaults.getInstance().getOpenVaults();
+        Inventory open = registry.getInventory(key);
+        if (open != null) {
+            PlayerVaults.debug("Already open");
+            return CompletableFuture.completedFuture(open);
+        }
+
+        CompletableFuture<Inventory> future = new CompletableFuture<>();
+        CompletableFuture<Inventory> existing = this.loading.putIfAbsent(key, future);
+        if (existing != null) {
+            PlayerVaults.debug("Already loading vault " + key);
+            return existing;
+        }
+        future.whenComplete((inventory, throwable) -> this.loading.remove(key, future));
+
+        PlayerVaults.debug("Loading vault " + key + " asynchronously");
+        this.lastAccess.touch(holder);
+        try {
+            this.loader.execute(() -> {
+                boolean exists;
+                ItemStack[] contents;
+                try {
+                    exists = this.vaultExists(holder, number);
+                    contents = exists ? this.getContents(holder, number) : null;
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                this.completeOnMainThread(future, () -> {
+                    Inventory inventory = registry.getInventory(key);
+                    if (inventory != null) {
+                        return inventory;
+                    }
+                    VaultHolder vaultHolder = new VaultHolder(number);
+                    inventory = getInventory(vaultHolder, holder, vaultSize, number, PlayerVaults.getInstance().getVaultTitle(number), contents);
+                    if (!exists && create) {
+                        // Save on close even if left empty, the vault exists (and may have been paid for) from now on.
+                        vaultHolder.markModified();
+                    }
+                    return registry.register(key, inventory);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void completeOnMainThread(CompletableFuture<Inventory> future, Supplier<Inventory> task) {
+        try {
+            Bukkit.getScheduler().runTask(this.plugin, () -> {
+                try {
+                    future.complete(task.get());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Plugin is disabling
+            future.completeExceptionally(e);
         }
-        return inv;
     }
 
     /**
      * Get an inventory from file. Returns null if the inventory doesn't exist. SHOULD ONLY BE USED INTERNALLY
      *
-     * @param playerFile the YamlConfiguration file.
      * @param size the size of the vault.
      * @param number the vault number.
+     * @param deserialized the stored contents, null if none.
      * @return inventory if exists, otherwise null.
      */
-    private Inventory getInventory(InventoryHolder owner, String ownerName, YamlConfiguration playerFile, int size, int number, String title) {
+    private Inventory getInventory(VaultHolder owner, String ownerName, int size, int number, String title, ItemStack[] deserialized) {
         Inventory inventory = Bukkit.createInventory(owner, size, title);
 
-        String data = playerFile.getString(String.format(VAULTKEY, number));
-        ItemStack[] deserialized = CardboardBoxSerialization.fromStorage(data, ownerName);
         if (deserialized == null) {
             PlayerVaults.debug("Loaded vault for " + ownerName + " as null");
+            owner.setInventory(inventory);
             return inventory;
         }
 
@@ -182,6 +549,11 @@ public class VaultManager {
             inventory.setContents(deserialized);
         }
 
+        owner.setInventory(inventory);
+        if (deserialized.length > size) {
+            // Rearranged, so what's in storage no longer matches.
+            owner.markModified();
+        }
         PlayerVaults.debug("Loaded vault");
         return inventory;
     }
@@ -194,28 +566,55 @@ public class VaultManager {
      * @return The inventory of the specified holder and vault number. Can be null.
      */
     public Inventory getVault(String holder, int number) {
-        YamlConfiguration playerFile = getPlayerVaultFile(holder, true);
-        String serialized = playerFile.getString(String.format(VAULTKEY, number));
-        ItemStack[] contents = CardboardBoxSerialization.fromStorage(serialized, holder);
+        ItemStack[] contents = getContents(holder, number);
+        if (contents == null) {
+            return null;
+        }
         Inventory inventory = Bukkit.createInventory(null, contents.length, holder + " vault " + number);
         inventory.setContents(contents);
         return inventory;
     }
 
+    /**
+     * Gets the contents of a vault, preferring a snapshot that is still waiting to be written.
+     *
+     * @param holder holder of the vault.
+     * @param number vault number.
+     * @return the contents, or null if the stored data could not be read.
+     */
+    private ItemStack[] getContents(String holder, int number) {
+        ItemStack[] pending = this.saveQueue.getPending(holder, number);
+        if (pending != null) {
+            // Copy, the queued snapshot must stay untouched until it is written.
+            return snapshot(pending);
+        }
+        Lock lock = this.locks.read(holder);
+        lock.lock();
+        try {
+            return this.storage.load(holder, number);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Checks if a vault exists.
      *
      * @param holder holder of the vault.
      * @param number vault number.
-     * @return true if the vault file and vault number exist in that file, otherwise false.
+     * @return true if the vault is stored or waiting to be, otherwise false.
      */
     public boolean vaultExists(String holder, int number) {
-        File file = new File(directory, holder + ".yml");
-        if (!file.exists()) {
-            return false;
+        if (this.saveQueue.getPending(holder, number) != null) {
+            return true;
+        }
+        Lock lock = this.locks.read(holder);
+        lock.lock();
+        try {
+            return this.storage.exists(holder, number);
+        } finally {
+            lock.unlock();
         }
-
-        return getPlayerVaultFile(holder, true).contains(String.format(VAULTKEY, number));
     }
 
     /**
@@ -225,29 +624,33 @@ public class VaultManager {
      * @return a set of Integers, which are player's vaults' numbers (fuck grammar).
      */
     public Set<Integer> getVaultNumbers(String holder) {
-        Set<Integer> vaults = new HashSet<>();
-        YamlConfiguration file = getPlayerVaultFile(holder, true);
-        if (file == null) {
-            return vaults;
-        }
-
-        for (String s : file.getKeys(false)) {
-            try {
-                // vault%
-                int number = Integer.parseInt(s.substring(4));
-                vaults.add(number);
-            } catch (NumberFormatException e) {
-                // silent
-            }
+        Set<Integer> vaults = new HashSet<>(this.saveQueue.getPendingNumbers(holder));
+        Lock lock = this.locks.read(holder);
+        lock.lock();
+        try {
+            vaults.addAll(this.storage.getVaultNumbers(holder));
+        } finally {
+            lock.unlock();
         }
-
-
         return vaults;
     }
 
     public void deleteAllVaults(String holder) {
-        removeCachedPlayerVaultFile(holder);
-        deletePlayerVaultFile(holder);
+        this.saveQueue.discard(holder);
+        // Let a write that is already running finish before the file goes away.
+        this.saveQueue.flush();
+        // Not held while flushing, the I/O thread needs it to finish.
+        Lock lock = this.locks.write(holder);
+        lock.lock();
+        try {
+            this.storage.deleteAll(holder);
+            this.changedHolders.add(holder);
+            this.lastAccess.remove(holder);
+        } catch (IOException e) {
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to delete vaults for: " + holder, e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -258,27 +661,7 @@ public class VaultManager {
      * @param number The vault number.
      */
     public void deleteVault(CommandSender sender, final String holder, final int number) {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                File file = new File(directory, holder + ".yml");
-                if (!file.exists()) {
-                    return;
-                }
-
-                YamlConfiguration playerFile = YamlConfiguration.loadConfiguration(file);
-                if (file.exists()) {
-                    playerFile.set(String.format(VAULTKEY, number), null);
-                    if (cachedVaultFiles.containsKey(holder)) {
-                        cachedVaultFiles.put(holder, playerFile);
-                    }
-                    try {
-                        playerFile.save(file);
-                    } catch (IOException ignored) {
-                    }
-                }
-            }
-        }.runTaskAsynchronously(PlayerVaults.getInstance());
+        this.queueDelete(holder, number);
 
         OfflinePlayer player = Bukkit.getPlayer(holder);
         if (player != null) {
@@ -290,88 +673,133 @@ public class VaultManager {
         }
 
         String vaultName = sender instanceof Player ? ((Player) sender).getUniqueId().toString() : holder;
-        PlayerVaults.getInstance().getOpenInventories().remove(new VaultViewInfo(vaultName, number).toString());
+        PlayerVaults.getInstance().getOpenVaults().forget(VaultKey.of(vaultName, number));
+    }
+
+    private void queueDelete(String holder, int number) {
+        this.saveQueue.discard(holder, number);
+        // Runs on the I/O thread so it can't be overtaken by a save queued before it.
+        this.saveQueue.execute(() -> {
+            Lock lock = this.locks.write(holder);
+            lock.lock();
+            try {
+                this.storage.delete(holder, number);
+                this.changedHolders.add(holder);
+            } catch (IOException e) {
+                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to delete vault " + number + " for: " + holder, e);
+            } finally {
+                lock.unlock();
+            }
+        });
     }
 
     // Should only be run asynchronously
     public void cachePlayerVaultFile(String holder) {
-        YamlConfiguration config = this.loadPlayerVaultFile(holder, false);
-        if (config != null) {
-            this.cachedVaultFiles.put(holder, config);
+        this.lastAccess.touch(holder);
+        Lock lock = this.locks.read(holder);
+        lock.lock();
+        try {
+            this.storage.cache(holder);
+        } finally {
+            lock.unlock();
         }
     }
 
     public void removeCachedPlayerVaultFile(String holder) {
-        cachedVaultFiles.remove(holder);
+        this.storage.uncache(holder);
     }
 
     /**
-     * Get the holder's vault file. Create if doesn't exist.
+     * Gets a copy of the holder's vaults in the old per-player YAML layout, whatever the storage type. Changes to
+     * it are only stored through {@link #saveFileSync(String, YamlConfiguration)}.
      *
      * @param holder The vault holder.
-     * @return The holder's vault config file.
+     * @param createIfNotFound true to get an empty config rather than null if the holder has no vaults.
+     * @return The holder's vaults.
+     * @deprecated Vaults aren't kept in YAML files anymore, use {@link #getVault(String, int)} and
+     * {@link #saveVault(Inventory, String, int)}.
      */
+    @Deprecated
     public YamlConfiguration getPlayerVaultFile(String holder, boolean createIfNotFound) {
-        if (cachedVaultFiles.containsKey(holder)) {
-            return cachedVaultFiles.get(holder);
-        }
-        return loadPlayerVaultFile(holder, createIfNotFound);
+        return this.loadPlayerVaultFile(holder, createIfNotFound);
     }
 
+    /**
+     * @deprecated see {@link #getPlayerVaultFile(String, boolean)}.
+     */
+    @Deprecated
     public YamlConfiguration loadPlayerVaultFile(String holder) {
         return this.loadPlayerVaultFile(holder, true);
     }
 
     /**
-     * Attempt to delete a vault file.
-     *
-     * @param holder UUID of the holder.
+     * @deprecated see {@link #getPlayerVaultFile(String, boolean)}.
      */
-    public void deletePlayerVaultFile(String holder) {
-        File file = new File(this.directory, holder + ".yml");
-        if (file.exists()) {
-            file.delete();
-        }
-    }
-
-    public YamlConfiguration loadPlayerVaultFile(String uniqueId, boolean createIfNotFound) {
-        if (!this.directory.exists()) {
-            this.directory.mkdir();
+    @Deprecated
+    public YamlConfiguration loadPlayerVaultFile(String holder, boolean createIfNotFound) {
+        Set<Integer> numbers = this.getVaultNumbers(holder);
+        if (numbers.isEmpty() && !createIfNotFound) {
+            return null;
         }
-
-        File file = new File(this.directory, uniqueId + ".yml");
-        if (!file.exists()) {
-            if (createIfNotFound) {
-                try {
-                    file.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            } else {
-                return null;
+        YamlConfiguration yaml = new YamlConfiguration();
+        for (int number : new TreeSet<>(numbers)) {
+            ItemStack[] contents = this.getContents(holder, number);
+            if (contents != null) {
+                yaml.set(VaultKey.storageKey(number), CardboardBoxSerialization.toStorage(contents, holder));
             }
         }
+        return yaml;
+    }
 
-        return YamlConfiguration.loadConfiguration(file);
+    /**
+     * Deletes all vaults of a holder.
+     *
+     * @param holder The vault holder.
+     * @deprecated use {@link #deleteAllVaults(String)}.
+     */
+    @Deprecated
+    public void deletePlayerVaultFile(String holder) {
+        this.deleteAllVaults(holder);
     }
 
-    public void saveFileSync(final String holder, final YamlConfiguration yaml) {
-        if (cachedVaultFiles.containsKey(holder)) {
-            cachedVaultFiles.put(holder, yaml);
+    /**
+     * Replaces all vaults of a holder with those in a config in the old per-player YAML layout, and waits for them
+     * to be written.
+     *
+     * @param holder The vault holder.
+     * @param yaml The holder's vaults.
+     * @deprecated Vaults aren't kept in YAML files anymore, use {@link #saveVault(Inventory, String, int)}.
+     */
+    @Deprecated
+    public void saveFileSync(String holder, YamlConfiguration yaml) {
+        Map<Integer, ItemStack[]> vaults = new HashMap<>();
+        Set<Integer> kept = new HashSet<>();
+        for (String key : yaml.getKeys(false)) {
+            if (!key.startsWith("vault")) {
+                continue;
+            }
+            int number;
+            try {
+                number = Integer.parseInt(key.substring("vault".length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            // Unreadable vaults are kept as they are stored.
+            kept.add(number);
+            ItemStack[] contents = CardboardBoxSerialization.fromStorage(yaml.getString(key), holder);
+            if (contents != null) {
+                vaults.put(number, contents);
+            }
         }
-
-        final boolean backups = PlayerVaults.getInstance().isBackupsEnabled();
-        final File backupsFolder = PlayerVaults.getInstance().getBackupsFolder();
-        final File file = new File(directory, holder + ".yml");
-        if (file.exists() && backups) {
-            file.renameTo(new File(backupsFolder, holder + ".yml"));
+        for (int number : this.getVaultNumbers(holder)) {
+            if (!kept.contains(number)) {
+                this.queueDelete(holder, number);
+            }
         }
-        try {
-            yaml.save(file);
-        } catch (IOException e) {
-            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to save vault file for: " + holder, e));
-            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to save vault file for: " + holder, e);
+        if (!vaults.isEmpty()) {
+            this.saveQueue.submitAll(holder, vaults);
         }
+        this.saveQueue.flush();
         PlayerVaults.debug("Saved vault for " + holder);
     }
 }
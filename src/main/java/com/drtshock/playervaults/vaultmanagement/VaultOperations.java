@@ -28,12 +28,9 @@ import org.bukkit.inventory.CraftingInventory;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryView;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 
 public class VaultOperations {
 
@@ -78,6 +75,9 @@ public class VaultOperations {
      * @return Whether or not they have permission.
      */
     public static boolean checkPerms(CommandSender sender, int number) {
+        if (sender instanceof Player player) {
+            return PlayerVaults.getInstance().getEntitlements().get(player).maxVaults() >= number;
+        }
         for (int x = number; x <= PlayerVaults.getInstance().getMaxVaultAmountPermTest(); x++) {
             if (sender.hasPermission(Permission.amount(x))) {
                 return true;
@@ -113,12 +113,7 @@ public class VaultOperations {
         if (player == null || !player.isOnline()) {
             return 6 * 9;
         }
-        for (int i = 6; i != 0; i--) {
-            if (player.getPlayer().hasPermission(Permission.size(i))) {
-                return i * 9;
-            }
-        }
-        return PlayerVaults.getInstance().getDefaultVaultSize();
+        return PlayerVaults.getInstance().getEntitlements().get(player.getPlayer()).maxSize();
     }
 
     /**
@@ -155,32 +150,18 @@ public class VaultOperations {
         }
 
         if (checkPerms(player, number)) {
-            if (free || EconomyOperations.payToOpen(player, number)) {
-                Inventory inv = VaultManager.getInstance().loadOwnVault(player, number, getMaxVaultSize(player));
-                if (inv == null) {
-                    PlayerVaults.debug(String.format("Failed to open null vault %d for %s. This is weird.", number, player.getName()));
-                    return false;
-                }
-
-                player.openInventory(inv);
-
-                // Check if the inventory was actually opened
-                if (player.getOpenInventory().getTopInventory() instanceof CraftingInventory || player.getOpenInventory().getTopInventory() == null) {
-                    PlayerVaults.debug(String.format("Cancelled opening vault %s for %s from an outside source.", arg, player.getName()));
-                    return false; // inventory open event was cancelled.
+            VaultKey info = VaultKey.of(player.getUniqueId(), number);
+            // Loaded off the main thread, opened back on it.
+            VaultManager.getInstance().loadVaultAsync(player.getUniqueId().toString(), number, getMaxVaultSize(player), true).whenComplete((inv, throwable) -> {
+                if (throwable != null) {
+                    PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load vault " + info, throwable);
+                    return;
                 }
-
-                VaultViewInfo info = new VaultViewInfo(player.getUniqueId().toString(), number);
-                PlayerVaults.getInstance().getOpenInventories().put(info.toString(), inv);
-
-                if (send) {
+                if (openLoaded(player, info, inv, arg, !free) && send) {
                     PlayerVaults.getInstance().getTL().openVault().title().with("vault", arg).send(player);
                 }
-                return true;
-            } else {
-                PlayerVaults.getInstance().getTL().insufficientFunds().title().send(player);
-                return false;
-            }
+            });
+            return true;
         } else {
             PlayerVaults.getInstance().getTL().noPerms().title().send(player);
         }
@@ -237,7 +218,6 @@ public class VaultOperations {
             PlayerVaults.getInstance().getTL().mustBeNumber().title().send(player);
         }
 
-        Inventory inv = VaultManager.getInstance().loadOtherVault(vaultOwner, number, getMaxVaultSize(vaultOwner));
         String name = vaultOwner;
         try {
             OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(UUID.fromString(vaultOwner));
@@ -246,30 +226,47 @@ public class VaultOperations {
             // not a player
         }
 
-        if (inv == null) {
-            PlayerVaults.getInstance().getTL().vaultDoesNotExist().title().send(player);
-        } else {
-            player.openInventory(inv);
-
-            // Check if the inventory was actually opened
-            if (player.getOpenInventory().getTopInventory() instanceof CraftingInventory || player.getOpenInventory().getTopInventory() == null) {
-                PlayerVaults.debug(String.format("Cancelled opening vault %s for %s from an outside source.", arg, player.getName()));
-                return false; // inventory open event was cancelled.
+        String ownerName = name;
+        VaultKey info = VaultKey.of(vaultOwner, number);
+        VaultManager.getInstance().loadVaultAsync(vaultOwner, number, getMaxVaultSize(vaultOwner), false).whenComplete((inv, throwable) -> {
+            if (throwable != null) {
+                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to load vault " + info, throwable);
+                return;
             }
-            if (send) {
-                PlayerVaults.getInstance().getTL().openOtherVault().title().with("vault", arg).with("player", name).send(player);
+            if (openLoaded(player, info, inv, arg, false)) {
+                if (send) {
+                    PlayerVaults.getInstance().getTL().openOtherVault().title().with("vault", arg).with("player", ownerName).send(player);
+                }
+                PlayerVaults.debug("opening other vault", time);
             }
-            PlayerVaults.debug("opening other vault", time);
+        });
+        return true;
+    }
 
-            // Need to set ViewInfo for a third party vault for the opening player.
-            VaultViewInfo info = new VaultViewInfo(vaultOwner, number);
-            PlayerVaults.getInstance().getInVault().put(player.getUniqueId().toString(), info);
-            PlayerVaults.getInstance().getOpenInventories().put(player.getUniqueId().toString(), inv);
-            return true;
+    // Opens a loaded vault, on the main thread. Returns false if the player can no longer see it, opening was cancelled
+    // or they couldn't pay. Paying comes last, so nobody is charged for a vault that didn't open.
+    private static boolean openLoaded(Player player, VaultKey info, Inventory inv, String arg, boolean pay) {
+        if (!player.isOnline() || player.isDead() || isLocked()) {
+            PlayerVaults.getInstance().getOpenVaults().discardIfUnused(info);
+            return false;
         }
+        player.openInventory(inv);
 
-        PlayerVaults.debug("opening other vault returning false", time);
-        return false;
+        // Check if the inventory was actually opened
+        if (player.getOpenInventory().getTopInventory() instanceof CraftingInventory || player.getOpenInventory().getTopInventory() == null) {
+            PlayerVaults.debug(String.format("Cancelled opening vault %s for %s from an outside source.", arg, player.getName()));
+            PlayerVaults.getInstance().getOpenVaults().discardIfUnused(info);
+            return false; // inventory open event was cancelled.
+        }
+        if (pay && !EconomyOperations.payToOpen(player, info.getNumber())) {
+            // Not entered yet, so closing doesn't save the vault.
+            player.closeInventory();
+            PlayerVaults.getInstance().getOpenVaults().discardIfUnused(info);
+            PlayerVaults.getInstance().getTL().insufficientFunds().title().send(player);
+            return false;
+        }
+        PlayerVaults.getInstance().getOpenVaults().enter(player.getUniqueId(), info, inv);
+        return true;
     }
 
     /**
@@ -366,32 +363,13 @@ public class VaultOperations {
         }
     }
 
-    private record PlayerCount(int count, Instant time) {
-    }
-
-    private static Map<UUID, PlayerCount> countCache = new ConcurrentHashMap<>();
-
-    private static final int secondsToLive = 2;
-
+    /**
+     * Gets the highest vault number a player may open.
+     *
+     * @param player player
+     * @return highest vault number, 0 for none
+     */
     public static int countVaults(Player player) {
-        UUID uuid = player.getUniqueId();
-        PlayerCount count = countCache.get(uuid);
-        if (count != null && count.time().isAfter(Instant.now().plus(secondsToLive, ChronoUnit.SECONDS))) {
-            return count.count;
-        }
-        int vaultCount = 0;
-        for (int x = 1; x <= PlayerVaults.getInstance().getMaxVaultAmountPermTest(); x++) {
-            if (player.hasPermission(Permission.amount(x))) {
-                vaultCount = x;
-            }
-        }
-        PlayerCount newCount = new PlayerCount(vaultCount, Instant.now());
-        countCache.put(uuid, newCount);
-        PlayerVaults.getInstance().getServer().getScheduler().runTaskLater(PlayerVaults.getInstance(), () -> {
-            if (countCache.get(uuid) == newCount) {
-                countCache.remove(uuid); // Do a lil cleanup to avoid the world's smallest memory leak
-            }
-        }, 20 * secondsToLive + 1);
-        return vaultCount;
+        return PlayerVaults.getInstance().getEntitlements().get(player).maxVaults();
     }
 }
@@ -0,0 +1,269 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import com.drtshock.playervaults.PlayerVaults;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+/**
+ * Write-behind queue for vault saves. Callers hand over an immutable snapshot of a vault's contents and a single
+ * I/O thread serializes and writes it. Saves that pile up within a flush window are written as one batch followed
+ * by a single commit, so only the latest snapshot of each vault ever hits the disk and many holders share one sync.
+ */
+public class VaultSaveQueue {
+    // Least time before retrying a failed write, so a broken disk isn't hammered with a zero save window.
+    private static final long RETRY_MILLIS = 5000;
+
+    private final BiConsumer<String, Map<Integer, ItemStack[]>> writer;
+    private final Runnable committer;
+    private final long windowMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PlayerVaultsX I/O");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Holder - (vault number - latest snapshot). A holder stays in here until its snapshots are committed.
+    private final Map<String, Map<Integer, ItemStack[]>> pending = new HashMap<>();
+    private boolean scheduled;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param writer writes a batch of snapshots for one holder, called on the I/O thread
+     * @param committer makes everything written so far durable, called on the I/O thread after each batch
+     * @param windowMillis how long to gather saves before writing them
+     */
+    VaultSaveQueue(BiConsumer<String, Map<Integer, ItemStack[]>> writer, Runnable committer, long windowMillis) {
+        this.writer = writer;
+        this.committer = committer;
+        this.windowMillis = Math.max(0, windowMillis);
+    }
+
+    /**
+     * Queues a snapshot to be written. The array must not be modified afterwards.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     * @param contents snapshot of the vault contents
+     */
+    public void submit(String holder, int number, ItemStack[] contents) {
+        this.submitAll(holder, Map.of(number, contents));
+    }
+
+    /**
+     * Queues snapshots of several vaults of one holder at once.
+     *
+     * @param holder holder of the vaults
+     * @param vaults vault number - contents, which must not be changed afterwards
+     */
+    public void submitAll(String holder, Map<Integer, ItemStack[]> vaults) {
+        boolean schedule;
+        synchronized (this) {
+            this.pending.computeIfAbsent(holder, k -> new HashMap<>()).putAll(vaults);
+            schedule = !this.scheduled;
+            this.scheduled = true;
+        }
+        if (schedule) {
+            this.schedule();
+        }
+    }
+
+    private void schedule() {
+        try {
+            this.executor.schedule(this::drain, this.windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down already, don't lose the write.
+            this.drain();
+        }
+    }
+
+    /**
+     * Gets the latest snapshot for a vault that has not been written yet.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     * @return the pending snapshot, or null if the stored copy is current
+     */
+    public synchronized ItemStack[] getPending(String holder, int number) {
+        Map<Integer, ItemStack[]> vaults = this.pending.get(holder);
+        return vaults == null ? null : vaults.get(number);
+    }
+
+    /**
+     * Gets the numbers of all vaults of a holder that have a snapshot waiting to be written.
+     *
+     * @param holder holder of the vaults
+     * @return pending vault numbers
+     */
+    public synchronized Set<Integer> getPendingNumbers(String holder) {
+        Map<Integer, ItemStack[]> vaults = this.pending.get(holder);
+        return vaults == null ? Collections.emptySet() : new HashSet<>(vaults.keySet());
+    }
+
+    /**
+     * Drops a snapshot that has not been written yet, for example because the vault is being deleted.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     */
+    public synchronized void discard(String holder, int number) {
+        Map<Integer, ItemStack[]> vaults = this.pending.get(holder);
+        if (vaults != null) {
+            vaults.remove(number);
+            if (vaults.isEmpty()) {
+                this.pending.remove(holder);
+            }
+        }
+    }
+
+    /**
+     * Drops all snapshots of a holder that have not been written yet.
+     *
+     * @param holder holder of the vaults
+     */
+    public synchronized void discard(String holder) {
+        this.pending.remove(holder);
+    }
+
+    /**
+     * Runs a task on the I/O thread, ordered after every save queued so far.
+     *
+     * @param task task to run
+     */
+    public void execute(Runnable task) {
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shut down already, don't lose the write.
+            task.run();
+        }
+    }
+
+    /**
+     * Blocks until every snapshot queued before this call has been written.
+     */
+    public void flush() {
+        // Drains right away instead of waiting out the window, then waits for anything queued behind it.
+        try {
+            this.executor.submit(this::drain).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException ignored) {
+        }
+    }
+
+    /**
+     * Writes everything still queued and stops the I/O thread.
+     */
+    public void shutdown() {
+        this.flush();
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                PlayerVaults.getInstance().getLogger().severe("Timed out waiting for vault saves to finish!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called on the I/O thread
+    private void drain() {
+        Map<String, Map<Integer, ItemStack[]>> batch = new HashMap<>();
+        synchronized (this) {
+            this.scheduled = false;
+            this.pending.forEach((holder, vaults) -> {
+                if (!vaults.isEmpty()) {
+                    batch.put(holder, new HashMap<>(vaults));
+                }
+            });
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Set<String> failed = new HashSet<>();
+        batch.forEach((holder, vaults) -> {
+            try {
+                this.writer.accept(holder, vaults);
+            } catch (Exception e) {
+                failed.add(holder);
+                PlayerVaults.getInstance().addException(new IllegalStateException("Failed to save vaults for: " + holder, e));
+                PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to save vaults for: " + holder, e);
+            }
+        });
+        try {
+            this.committer.run();
+        } catch (Exception e) {
+            // Nothing in the batch is known to be durable.
+            failed.addAll(batch.keySet());
+            PlayerVaults.getInstance().addException(new IllegalStateException("Failed to commit vault saves", e));
+            PlayerVaults.getInstance().getLogger().log(Level.SEVERE, "Failed to commit vault saves", e);
+        }
+
+        synchronized (this) {
+            batch.forEach((holder, written) -> {
+                Map<Integer, ItemStack[]> vaults = this.pending.get(holder);
+                // Failed snapshots stay queued, and readable, until a retry writes them.
+                if (vaults == null || failed.contains(holder)) {
+                    return;
+                }
+                // Only forget snapshots that were written, newer ones came in while writing.
+                written.forEach(vaults::remove);
+                if (vaults.isEmpty()) {
+                    this.pending.remove(holder);
+                }
+            });
+        }
+        if (!failed.isEmpty()) {
+            this.retry(failed.size());
+        }
+    }
+
+    // Called on the I/O thread
+    private void retry(int holders) {
+        synchronized (this) {
+            if (this.scheduled) {
+                return;
+            }
+            this.scheduled = true;
+        }
+        try {
+            this.executor.schedule(this::drain, Math.max(this.windowMillis, RETRY_MILLIS), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                this.scheduled = false;
+            }
+            PlayerVaults.getInstance().getLogger().severe("Shutting down, giving up on writing vaults for " + holders + " holder(s)!");
+        }
+    }
+}
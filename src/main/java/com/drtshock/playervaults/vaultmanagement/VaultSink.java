@@ -0,0 +1,50 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.vaultmanagement;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Takes a stream of vaults to store, for bulk imports such as converters. Vaults are grouped by holder and written
+ * in batches, so a holder with many vaults is written once per batch instead of once per vault. Accepting blocks
+ * while a full batch is being written, so a fast producer can't run out of memory. Not thread-safe.
+ */
+public interface VaultSink extends AutoCloseable {
+
+    /**
+     * Stores a vault. The array is owned by the sink afterwards and must not be changed.
+     *
+     * @param holder holder of the vault
+     * @param number vault number
+     * @param contents contents, padded to whole rows if needed. Vaults with items past the largest vault size are
+     *                 skipped with a warning instead of being cut down.
+     */
+    void accept(String holder, int number, ItemStack[] contents);
+
+    /**
+     * Writes everything accepted so far and waits for it to finish.
+     */
+    void flush();
+
+    /**
+     * Flushes the sink.
+     */
+    @Override
+    void close();
+}
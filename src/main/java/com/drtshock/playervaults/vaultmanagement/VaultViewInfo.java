@@ -20,7 +20,10 @@ package com.drtshock.playervaults.vaultmanagement;
 
 /**
  * A class that stores information about a vault viewing including the holder of the vault, and the vault number.
+ *
+ * @deprecated vaults are identified by {@link VaultKey}, see {@link OpenVaultRegistry}
  */
+@Deprecated
 public class VaultViewInfo {
 
     final String vaultName;
@@ -54,6 +57,31 @@ public class VaultViewInfo {
         return this.number;
     }
 
+    /**
+     * Gets the key identifying the same vault.
+     *
+     * @return vault key
+     */
+    public VaultKey toKey() {
+        return VaultKey.of(this.vaultName, this.number);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VaultViewInfo other)) {
+            return false;
+        }
+        return this.number == other.number && this.vaultName.equals(other.vaultName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.vaultName.hashCode() + this.number;
+    }
+
     @Override
     public String toString() {
         return this.vaultName + " " + this.number;
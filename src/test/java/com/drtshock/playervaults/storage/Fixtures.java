@@ -0,0 +1,103 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.PlayerVaults;
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import com.drtshock.playervaults.vaultmanagement.ItemCache;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lets storage run without a server: a mocked plugin instance for logging, and items serialized as
+ * {@code TYPE:amount} instead of through CardboardBox, which needs the server's NBT code.
+ */
+final class Fixtures {
+    private static final class TextItemCache extends ItemCache {
+        private TextItemCache() {
+            super(0);
+        }
+
+        @Override
+        public byte[] serialize(ItemStack item) {
+            return (item.getType().name() + ':' + item.getAmount()).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public ItemStack deserialize(byte[] data) {
+            String[] parts = new String(data, StandardCharsets.UTF_8).split(":");
+            return new ItemStack(Material.valueOf(parts[0]), Integer.parseInt(parts[1]));
+        }
+    }
+
+    private Fixtures() {
+    }
+
+    static void install() throws ReflectiveOperationException {
+        PlayerVaults plugin = mock(PlayerVaults.class);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("PlayerVaultsX"));
+        when(plugin.addException(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Field instance = PlayerVaults.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, plugin);
+        CardboardBoxSerialization.setItemCache(new TextItemCache());
+    }
+
+    /**
+     * Creates vault contents.
+     *
+     * @param size slots
+     * @param items pairs of slot and material, each stack gets the slot number plus one as amount
+     * @return contents
+     */
+    static ItemStack[] vault(int size, Object... items) {
+        ItemStack[] contents = new ItemStack[size];
+        for (int i = 0; i < items.length; i += 2) {
+            int slot = (Integer) items[i];
+            contents[slot] = new ItemStack((Material) items[i + 1], slot + 1);
+        }
+        return contents;
+    }
+
+    // Items have no meta here, and ItemStack.equals would need the server's item factory to compare it.
+    static void assertContents(ItemStack[] expected, ItemStack[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int slot = 0; slot < expected.length; slot++) {
+            if (expected[slot] == null) {
+                assertNull(actual[slot], "slot " + slot);
+            } else {
+                assertNotNull(actual[slot], "slot " + slot);
+                assertEquals(expected[slot].getType(), actual[slot].getType(), "slot " + slot);
+                assertEquals(expected[slot].getAmount(), actual[slot].getAmount(), "slot " + slot);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalStorageTest {
+    private static final String HOLDER = "0b3b4f9e-4b8e-4b1a-9d3c-5c1f1e2a7d10";
+
+    /**
+     * Wrapped storage kept in memory, recording which holders were deleted entirely.
+     */
+    private static final class MemoryStorage implements VaultStorage {
+        private final Map<String, Map<Integer, ItemStack[]>> vaults = new ConcurrentHashMap<>();
+        private final Set<String> deletedAll = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public ItemStack[] load(String holder, int number) {
+            ItemStack[] contents = this.vaults.getOrDefault(holder, Map.of()).get(number);
+            return contents == null ? CardboardBoxSerialization.emptyInventory() : contents;
+        }
+
+        @Override
+        public void save(String holder, Map<Integer, ItemStack[]> vaults) {
+            this.vaults.computeIfAbsent(holder, key -> new ConcurrentHashMap<>()).putAll(vaults);
+        }
+
+        @Override
+        public void delete(String holder, int number) {
+            this.vaults.getOrDefault(holder, new HashMap<>()).remove(number);
+        }
+
+        @Override
+        public void deleteAll(String holder) {
+            this.vaults.remove(holder);
+            this.deletedAll.add(holder);
+        }
+
+        @Override
+        public boolean exists(String holder, int number) {
+            return this.vaults.getOrDefault(holder, Map.of()).containsKey(number);
+        }
+
+        @Override
+        public Set<Integer> getVaultNumbers(String holder) {
+            return new HashSet<>(this.vaults.getOrDefault(holder, Map.of()).keySet());
+        }
+    }
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void setUp() throws ReflectiveOperationException {
+        Fixtures.install();
+    }
+
+    // Compacts only on close, unless a test leaves it open as if the server had died.
+    private JournalStorage open(VaultStorage primary) throws IOException {
+        return new JournalStorage(primary, this.directory.resolve("journal"), 3600, holder -> new ReentrantLock());
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory.resolve("journal"), "*.log")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    @Test
+    void readsJournaledVaultsBeforeCompaction() throws IOException {
+        MemoryStorage primary = new MemoryStorage();
+        JournalStorage journal = this.open(primary);
+        ItemStack[] contents = Fixtures.vault(54, 0, Material.DIAMOND, 40, Material.STONE);
+        journal.save(HOLDER, Map.of(1, contents));
+        journal.commit();
+
+        Fixtures.assertContents(contents, journal.load(HOLDER, 1));
+        assertTrue(journal.exists(HOLDER, 1));
+        assertEquals(Set.of(1), journal.getVaultNumbers(HOLDER));
+        assertFalse(primary.exists(HOLDER, 1));
+
+        journal.close();
+        Fixtures.assertContents(contents, primary.load(HOLDER, 1));
+        assertTrue(this.segments().stream().allMatch(segment -> segment.toFile().length() == 0));
+    }
+
+    @Test
+    void replaysAfterCrash() throws IOException {
+        JournalStorage crashed = this.open(new MemoryStorage());
+        ItemStack[] first = Fixtures.vault(27, 2, Material.DIRT);
+        ItemStack[] second = Fixtures.vault(27, 5, Material.GOLD_INGOT);
+        crashed.save(HOLDER, Map.of(1, first, 2, second));
+        crashed.commit();
+        crashed.delete(HOLDER, 2);
+
+        MemoryStorage primary = new MemoryStorage();
+        JournalStorage journal = this.open(primary);
+        Fixtures.assertContents(first, journal.load(HOLDER, 1));
+        assertFalse(journal.exists(HOLDER, 2));
+        assertEquals(Set.of(1), journal.getVaultNumbers(HOLDER));
+
+        journal.close();
+        Fixtures.assertContents(first, primary.load(HOLDER, 1));
+        assertEquals(Set.of(1), primary.getVaultNumbers(HOLDER));
+    }
+
+    @Test
+    void cutsOffTornRecord() throws IOException {
+        JournalStorage crashed = this.open(new MemoryStorage());
+        ItemStack[] kept = Fixtures.vault(9, 0, Material.EMERALD);
+        crashed.save(HOLDER, Map.of(1, kept));
+        crashed.commit();
+        crashed.save(HOLDER, Map.of(2, Fixtures.vault(9, 8, Material.BREAD)));
+        crashed.commit();
+
+        Path segment = this.segments().get(0);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        JournalStorage journal = this.open(new MemoryStorage());
+        Fixtures.assertContents(kept, journal.load(HOLDER, 1));
+        assertFalse(journal.exists(HOLDER, 2));
+        assertTrue(Files.size(segment) < size - 3);
+
+        // Appends go on after the cut, and both survive another restart.
+        ItemStack[] later = Fixtures.vault(9, 3, Material.STONE);
+        journal.save(HOLDER, Map.of(3, later));
+        journal.commit();
+        JournalStorage restarted = this.open(new MemoryStorage());
+        Fixtures.assertContents(kept, restarted.load(HOLDER, 1));
+        Fixtures.assertContents(later, restarted.load(HOLDER, 3));
+        assertEquals(Set.of(1, 3), restarted.getVaultNumbers(HOLDER));
+    }
+
+    @Test
+    void deleteAllCompactsIntoDeleteAll() throws IOException {
+        MemoryStorage primary = new MemoryStorage();
+        primary.save(HOLDER, Map.of(1, Fixtures.vault(9, 0, Material.DIRT), 2, Fixtures.vault(9, 1, Material.DIRT)));
+        JournalStorage journal = this.open(primary);
+        journal.deleteAll(HOLDER);
+
+        assertFalse(journal.exists(HOLDER, 1));
+        assertEquals(Set.of(), journal.getVaultNumbers(HOLDER));
+        Fixtures.assertContents(CardboardBoxSerialization.emptyInventory(), journal.load(HOLDER, 2));
+
+        ItemStack[] saved = Fixtures.vault(9, 4, Material.STONE);
+        journal.save(HOLDER, Map.of(3, saved));
+        journal.commit();
+        assertEquals(Set.of(3), journal.getVaultNumbers(HOLDER));
+
+        journal.close();
+        assertTrue(primary.deletedAll.contains(HOLDER));
+        assertEquals(Set.of(3), primary.getVaultNumbers(HOLDER));
+        Fixtures.assertContents(saved, primary.load(HOLDER, 3));
+    }
+
+    @Test
+    void skipsCompactedSegment() throws IOException {
+        MemoryStorage primary = new MemoryStorage();
+        JournalStorage journal = this.open(primary);
+        journal.save(HOLDER, Map.of(1, Fixtures.vault(9, 0, Material.DIRT)));
+        journal.commit();
+        Path segment = this.segments().get(0);
+        byte[] stale = Files.readAllBytes(segment);
+        journal.close();
+
+        ItemStack[] newer = Fixtures.vault(9, 6, Material.DIAMOND);
+        journal = this.open(primary);
+        journal.save(HOLDER, Map.of(1, newer));
+        journal.close();
+
+        // As if deleting the first segment had failed after it was compacted.
+        Files.write(segment, stale);
+        journal = this.open(primary);
+        Fixtures.assertContents(newer, journal.load(HOLDER, 1));
+        journal.close();
+        Fixtures.assertContents(newer, primary.load(HOLDER, 1));
+    }
+}
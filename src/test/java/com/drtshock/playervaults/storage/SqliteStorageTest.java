@@ -0,0 +1,147 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqliteStorageTest {
+    private static final String HOLDER = "5f2c1a8e-7d3b-4c6e-8a9f-0e1d2c3b4a59";
+    private static final String OTHER = "9a8b7c6d-5e4f-4a3b-8c2d-1e0f9a8b7c6d";
+
+    @TempDir
+    Path directory;
+    private Path vaults;
+    private SqliteStorage storage;
+
+    @BeforeAll
+    static void setUp() throws ReflectiveOperationException {
+        Fixtures.install();
+    }
+
+    @BeforeEach
+    void open() throws IOException, SQLException {
+        this.vaults = Files.createDirectories(this.directory.resolve("newvaults"));
+        this.storage = new SqliteStorage(this.directory.resolve("vaults.db").toFile(), this.vaults.toFile(), 2);
+    }
+
+    @AfterEach
+    void close() {
+        this.storage.close();
+    }
+
+    @Test
+    void savesAndLoads() throws IOException {
+        ItemStack[] first = Fixtures.vault(54, 0, Material.DIAMOND, 53, Material.STONE);
+        ItemStack[] second = Fixtures.vault(27, 13, Material.OAK_LOG);
+        this.storage.save(HOLDER, Map.of(1, first, 2, second));
+        this.storage.commit();
+
+        Fixtures.assertContents(first, this.storage.load(HOLDER, 1));
+        Fixtures.assertContents(second, this.storage.load(HOLDER, 2));
+        assertTrue(this.storage.exists(HOLDER, 1));
+        assertFalse(this.storage.exists(HOLDER, 3));
+        assertEquals(Set.of(1, 2), this.storage.getVaultNumbers(HOLDER));
+        assertEquals(Set.of(), this.storage.getVaultNumbers(OTHER));
+        Fixtures.assertContents(CardboardBoxSerialization.emptyInventory(), this.storage.load(HOLDER, 3));
+    }
+
+    @Test
+    void savesAreVisibleOnlyOnceCommitted() throws IOException {
+        this.storage.save(HOLDER, Map.of(1, Fixtures.vault(9, 0, Material.DIRT)));
+        // Readers use their own connections, and only see committed batches.
+        assertFalse(this.storage.exists(HOLDER, 1));
+        this.storage.commit();
+        assertTrue(this.storage.exists(HOLDER, 1));
+    }
+
+    @Test
+    void overwrites() throws IOException {
+        this.storage.save(HOLDER, Map.of(1, Fixtures.vault(9, 0, Material.DIRT)));
+        this.storage.commit();
+        ItemStack[] newer = Fixtures.vault(9, 5, Material.EMERALD);
+        this.storage.save(HOLDER, Map.of(1, newer));
+        this.storage.commit();
+        Fixtures.assertContents(newer, this.storage.load(HOLDER, 1));
+    }
+
+    @Test
+    void deletes() throws IOException {
+        this.storage.save(HOLDER, Map.of(1, Fixtures.vault(9, 0, Material.DIRT), 2, Fixtures.vault(9, 1, Material.DIRT)));
+        this.storage.save(OTHER, Map.of(1, Fixtures.vault(9, 2, Material.DIRT)));
+        this.storage.commit();
+
+        this.storage.delete(HOLDER, 1);
+        assertEquals(Set.of(2), this.storage.getVaultNumbers(HOLDER));
+        this.storage.deleteAll(HOLDER);
+        assertEquals(Set.of(), this.storage.getVaultNumbers(HOLDER));
+        assertTrue(this.storage.exists(OTHER, 1));
+    }
+
+    @Test
+    void deleteCommitsPendingSaves() throws IOException {
+        ItemStack[] saved = Fixtures.vault(9, 4, Material.STONE);
+        this.storage.save(OTHER, Map.of(1, saved));
+        this.storage.delete(HOLDER, 1);
+        assertTrue(this.storage.exists(OTHER, 1));
+        this.storage.commit();
+        Fixtures.assertContents(saved, this.storage.load(OTHER, 1));
+    }
+
+    @Test
+    void survivesReopen() throws IOException, SQLException {
+        ItemStack[] saved = Fixtures.vault(18, 17, Material.BREAD);
+        this.storage.save(HOLDER, Map.of(4, saved));
+        this.storage.commit();
+        this.storage.close();
+
+        this.storage = new SqliteStorage(this.directory.resolve("vaults.db").toFile(), this.vaults.toFile(), 1);
+        Fixtures.assertContents(saved, this.storage.load(HOLDER, 4));
+    }
+
+    @Test
+    void migratesFlatFile() throws IOException {
+        ItemStack[] contents = Fixtures.vault(27, 9, Material.GOLD_INGOT);
+        String data = Base64.getEncoder().encodeToString(CardboardBoxSerialization.writeInventory(contents));
+        Files.writeString(this.vaults.resolve(HOLDER + ".yml"), "vault3: " + data + "\n");
+
+        assertEquals(Set.of(3), this.storage.getVaultNumbers(HOLDER));
+        Fixtures.assertContents(contents, this.storage.load(HOLDER, 3));
+        assertFalse(Files.exists(this.vaults.resolve(HOLDER + ".yml")));
+        assertTrue(Files.exists(this.vaults.resolve("migrated").resolve(HOLDER + ".yml")));
+    }
+}
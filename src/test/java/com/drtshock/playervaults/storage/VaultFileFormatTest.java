@@ -0,0 +1,100 @@
+/*
+ * PlayerVaultsX
+ * Copyright (C) 2013 Trent Hensler
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drtshock.playervaults.storage;
+
+import com.drtshock.playervaults.vaultmanagement.CardboardBoxSerialization;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VaultFileFormatTest {
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void setUp() throws ReflectiveOperationException {
+        Fixtures.install();
+    }
+
+    @Test
+    void roundTrip() {
+        ItemStack[] contents = Fixtures.vault(54, 0, Material.DIAMOND, 17, Material.STONE, 53, Material.OAK_LOG);
+        Fixtures.assertContents(contents, VaultFileFormat.decode(ByteBuffer.wrap(VaultFileFormat.toBytes(contents)), "holder"));
+    }
+
+    @Test
+    void emptySlotsAreNotStored() {
+        byte[] data = VaultFileFormat.toBytes(Fixtures.vault(54));
+        assertEquals(VaultFileFormat.HEADER_SIZE, data.length);
+        Fixtures.assertContents(new ItemStack[54], VaultFileFormat.decode(ByteBuffer.wrap(data), "holder"));
+    }
+
+    @Test
+    void roundTripThroughFile() throws IOException {
+        ItemStack[] contents = Fixtures.vault(27, 3, Material.DIRT, 26, Material.GOLD_INGOT);
+        Path file = this.directory.resolve("1.pvx");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            VaultFileFormat.write(channel, contents);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Fixtures.assertContents(contents, VaultFileFormat.read(channel, "holder"));
+        }
+    }
+
+    @Test
+    void corruptBodyFailsChecksum() {
+        byte[] data = VaultFileFormat.toBytes(Fixtures.vault(9, 4, Material.DIAMOND));
+        data[data.length - 1] ^= 1;
+        assertNull(VaultFileFormat.decode(ByteBuffer.wrap(data), "holder"));
+    }
+
+    @Test
+    void truncatedFileIsUnreadable() {
+        byte[] data = VaultFileFormat.toBytes(Fixtures.vault(9, 4, Material.DIAMOND, 8, Material.STONE));
+        assertNull(VaultFileFormat.decode(ByteBuffer.wrap(Arrays.copyOf(data, data.length - 3)), "holder"));
+    }
+
+    @Test
+    void unknownVersionIsUnreadable() {
+        byte[] data = VaultFileFormat.toBytes(Fixtures.vault(9, 4, Material.DIAMOND));
+        data[4] = VaultFileFormat.VERSION + 1;
+        assertNull(VaultFileFormat.decode(ByteBuffer.wrap(data), "holder"));
+    }
+
+    @Test
+    void readsPayloadWithoutContainer() throws IOException {
+        ItemStack[] contents = Fixtures.vault(18, 0, Material.EMERALD, 9, Material.BREAD);
+        byte[] legacy = CardboardBoxSerialization.writeInventory(contents);
+        // Dense, starting with the slot count, so older versions can still read it from flatfile.
+        assertEquals(18, ByteBuffer.wrap(legacy).getInt());
+        Fixtures.assertContents(contents, VaultFileFormat.decode(ByteBuffer.wrap(legacy), "holder"));
+    }
+}